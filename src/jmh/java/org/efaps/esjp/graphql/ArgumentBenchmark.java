@@ -0,0 +1,140 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.efaps.eql.EQL;
+import org.efaps.graphql.definition.ArgumentDef;
+import org.efaps.graphql.providers.FieldType;
+import org.efaps.util.EFapsException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import graphql.GraphQLContext;
+import graphql.Scalars;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLInputObjectField;
+import graphql.schema.GraphQLInputObjectType;
+import graphql.schema.GraphQLList;
+
+/**
+ * Binds the arguments of a query to the where clause of its EQL statement
+ * and maps the input object of a mutation to the values of its statements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ArgumentBenchmark
+{
+
+    private final BaseDataFetcher dataFetcher = new BaseDataFetcher();
+
+    private final BaseCreateMutation mutation = new BaseCreateMutation();
+
+    private DataFetchingEnvironment queryEnvironment;
+
+    private List<ArgumentDef> argumentDefs;
+
+    private List<String> staticWhere;
+
+    @Setup
+    public void setup()
+    {
+        argumentDefs = List.of(Fixtures.argumentDef("name", "attribute[Name] == \"%s\"", FieldType.STRING),
+                        Fixtures.argumentDef("status", "attribute[Status] == \"%s\"", FieldType.STRING),
+                        Fixtures.argumentDef("from", "attribute[Date] >= \"%s\"", FieldType.DATETIME));
+        staticWhere = List.of("attribute[Company] == \"1\"", "attribute[Active] == \"true\"");
+        queryEnvironment = Fixtures.environment(Map.of("name", "Order-001", "status", "OPEN", "from",
+                        OffsetDateTime.parse("2024-01-01T00:00:00Z")), GraphQLContext.newContext().build());
+    }
+
+    @Benchmark
+    public Object evalWhere()
+        throws EFapsException
+    {
+        return dataFetcher.evalWhere(queryEnvironment, argumentDefs, staticWhere,
+                        EQL.builder().print().query("Sales_Order"));
+    }
+
+    @Benchmark
+    public Object evalValues(final Input input)
+    {
+        return mutation.evalValues(input.environment, input.inputType, input.inputObject);
+    }
+
+    /**
+     * An order with its positions as input object of a mutation.
+     */
+    @State(Scope.Benchmark)
+    public static class Input
+    {
+
+        @Param({ "1", "10", "100" })
+        public int positions;
+
+        private DataFetchingEnvironment environment;
+
+        private GraphQLInputObjectType inputType;
+
+        private Map<String, Object> inputObject;
+
+        @Setup
+        public void setup()
+        {
+            final var positionType = GraphQLInputObjectType.newInputObject().name("PositionInput")
+                            .field(GraphQLInputObjectField.newInputObjectField().name("product")
+                                            .type(Scalars.GraphQLString))
+                            .field(GraphQLInputObjectField.newInputObjectField().name("quantity")
+                                            .type(Scalars.GraphQLInt))
+                            .build();
+            inputType = GraphQLInputObjectType.newInputObject().name("OrderInput")
+                            .field(GraphQLInputObjectField.newInputObjectField().name("name")
+                                            .type(Scalars.GraphQLString))
+                            .field(GraphQLInputObjectField.newInputObjectField().name("contact")
+                                            .type(Scalars.GraphQLString))
+                            .field(GraphQLInputObjectField.newInputObjectField().name("positions")
+                                            .type(GraphQLList.list(positionType)))
+                            .build();
+            environment = Fixtures.environment(Map.of(), GraphQLContext.newContext()
+                            .of("OrderInput", Fixtures.objectDef("name", "contact", "positions"),
+                                "PositionInput", Fixtures.objectDef("product", "quantity"))
+                            .build());
+            final var positionList = new ArrayList<Map<String, Object>>();
+            for (int i = 0; i < positions; i++) {
+                final var position = new HashMap<String, Object>();
+                position.put("product", "Product-" + i);
+                position.put("quantity", i + 1);
+                positionList.add(position);
+            }
+            inputObject = new HashMap<>();
+            inputObject.put("name", "Order-001");
+            inputObject.put("contact", "Contact-001");
+            inputObject.put("positions", positionList);
+        }
+    }
+}
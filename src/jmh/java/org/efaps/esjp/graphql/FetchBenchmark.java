@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.efaps.db.stmt.selection.Evaluator;
+import org.efaps.util.EFapsException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Builds the rows of an object and of a list of objects from the values of
+ * an Evaluator, as BaseDataFetcher does for each result of a query. The
+ * baseline only reads the values from the stubbed Evaluator, its share is
+ * contained in the other results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FetchBenchmark
+{
+
+    @Param({ "SMALL", "WIDE", "NESTED" })
+    public Fixtures.Shape shape;
+
+    @Param({ "10", "100" })
+    public int rows;
+
+    private final BaseDataFetcher dataFetcher = new BaseDataFetcher();
+
+    private FetchPlan.Field object;
+
+    private Evaluator objectEval;
+
+    private FetchPlan.Field list;
+
+    private Evaluator listEval;
+
+    private List<String> aliases;
+
+    @Setup
+    public void setup()
+        throws EFapsException
+    {
+        final var objectValues = new HashMap<String, Object>();
+        object = Fixtures.selection(shape, FetchPlan.Kind.OBJECT, rows, objectValues);
+        objectEval = Fixtures.evaluator(objectValues);
+        final var listValues = new HashMap<String, Object>();
+        list = Fixtures.selection(shape, FetchPlan.Kind.LIST, rows, listValues);
+        listEval = Fixtures.evaluator(listValues);
+        aliases = new ArrayList<>(listValues.keySet());
+    }
+
+    @Benchmark
+    public Object getChildValue()
+        throws EFapsException
+    {
+        return dataFetcher.getChildValue(object, objectEval);
+    }
+
+    @Benchmark
+    public Object getChildValueList()
+        throws EFapsException
+    {
+        return dataFetcher.getChildValue(list, listEval);
+    }
+
+    @Benchmark
+    public Object transpose()
+        throws EFapsException
+    {
+        return dataFetcher.transpose(list, listEval, false);
+    }
+
+    @Benchmark
+    public void baseline(final Blackhole blackhole)
+        throws EFapsException
+    {
+        for (final var alias : aliases) {
+            blackhole.consume(listEval.<Object>get(alias));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.efaps.db.stmt.selection.Evaluator;
+import org.efaps.graphql.definition.ArgumentDef;
+import org.efaps.graphql.definition.FieldDef;
+import org.efaps.graphql.definition.ObjectDef;
+import org.efaps.graphql.providers.FieldType;
+import org.efaps.util.EFapsException;
+import org.mockito.Mockito;
+
+import graphql.GraphQLContext;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.DataFetchingEnvironmentImpl;
+
+/**
+ * Database free fixtures of the benchmarks. The eFaps types (Evaluator,
+ * ObjectDef, FieldDef, ArgumentDef) are stub only Mockito mocks, the
+ * DataFetchingEnvironment is built by graphql-java.
+ */
+public final class Fixtures
+{
+
+    /**
+     * Shape of a selection.
+     */
+    public enum Shape
+    {
+        /** One level with 3 fields. */
+        SMALL(1, 3),
+        /** One level with 40 fields. */
+        WIDE(1, 40),
+        /** Four levels with 3 fields and the next level each. */
+        NESTED(4, 3);
+
+        private final int levels;
+
+        private final int fields;
+
+        Shape(final int levels,
+              final int fields)
+        {
+            this.levels = levels;
+            this.fields = fields;
+        }
+    }
+
+    private Fixtures()
+    {
+    }
+
+    /**
+     * @param kind OBJECT or LIST
+     * @param rows rows of a list
+     * @param values filled with the values by alias, a column of values for
+     *            a list
+     * @return the field as compiled into a FetchPlan
+     */
+    static FetchPlan.Field selection(final Shape shape,
+                                     final FetchPlan.Kind kind,
+                                     final int rows,
+                                     final Map<String, Object> values)
+    {
+        return level(shape, kind, rows, 1, values);
+    }
+
+    private static FetchPlan.Field level(final Shape shape,
+                                         final FetchPlan.Kind kind,
+                                         final int rows,
+                                         final int level,
+                                         final Map<String, Object> values)
+    {
+        final var name = "level" + level;
+        final var children = new ArrayList<FetchPlan.Field>();
+        for (int i = 0; i < shape.fields; i++) {
+            final var alias = name + "_field" + i;
+            children.add(new FetchPlan.Field("field" + i, alias, FetchPlan.Kind.VALUE, null));
+            values.put(alias, FetchPlan.Kind.LIST.equals(kind) ? column(alias, rows) : alias);
+        }
+        if (level < shape.levels) {
+            children.add(level(shape, kind, rows, level + 1, values));
+        }
+        return new FetchPlan.Field(name, name, kind, children);
+    }
+
+    private static List<Object> column(final String alias,
+                                       final int rows)
+    {
+        final var ret = new ArrayList<Object>(rows);
+        for (int row = 0; row < rows; row++) {
+            ret.add(alias + "-" + row);
+        }
+        return ret;
+    }
+
+    /**
+     * @return an Evaluator positioned on a row with the given values by alias
+     */
+    static Evaluator evaluator(final Map<String, Object> values)
+        throws EFapsException
+    {
+        final var ret = Mockito.mock(Evaluator.class, Mockito.withSettings().stubOnly());
+        Mockito.when(ret.<Object>get(Mockito.anyString()))
+                        .thenAnswer(invocation -> values.get(invocation.<String>getArgument(0)));
+        return ret;
+    }
+
+    static ArgumentDef argumentDef(final String name,
+                                   final String whereStmt,
+                                   final FieldType fieldType)
+    {
+        final var ret = Mockito.mock(ArgumentDef.class, Mockito.withSettings().stubOnly());
+        Mockito.when(ret.getName()).thenReturn(name);
+        Mockito.when(ret.getWhereStmt()).thenReturn(whereStmt);
+        Mockito.when(ret.getFieldType()).thenReturn(fieldType);
+        return ret;
+    }
+
+    /**
+     * @param fieldNames names of the fields, used as their select too
+     */
+    static ObjectDef objectDef(final String... fieldNames)
+    {
+        final var fields = new HashMap<String, FieldDef>();
+        for (final var fieldName : fieldNames) {
+            final var fieldDef = Mockito.mock(FieldDef.class, Mockito.withSettings().stubOnly());
+            Mockito.when(fieldDef.getName()).thenReturn(fieldName);
+            Mockito.when(fieldDef.getSelect()).thenReturn("attribute[" + fieldName + "]");
+            fields.put(fieldName, fieldDef);
+        }
+        final var ret = Mockito.mock(ObjectDef.class, Mockito.withSettings().stubOnly());
+        Mockito.when(ret.getFields()).thenReturn(fields);
+        return ret;
+    }
+
+    static DataFetchingEnvironment environment(final Map<String, Object> arguments,
+                                               final GraphQLContext context)
+    {
+        return DataFetchingEnvironmentImpl.newDataFetchingEnvironment()
+                        .arguments(arguments)
+                        .graphQLContext(context)
+                        .build();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.efaps.graphql.providers.DataFetcherProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import graphql.ExecutionInput;
+import graphql.GraphQL;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+
+/**
+ * Resolves the setup of a BaseDataFetcher for a field: compiling the
+ * FetchPlan is the work each request did before the plans were cached,
+ * the lookup is what a request with a known selection shape does now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlanBenchmark
+{
+
+    @Param({ "3", "40" })
+    public int fields;
+
+    private final BaseDataFetcher dataFetcher = new BaseDataFetcher();
+
+    private DataFetchingEnvironment environment;
+
+    @Setup
+    public void setup()
+    {
+        final var sdl = new StringBuilder("type Query { orders: [Order] } type Order {");
+        final var query = new StringBuilder("{ orders {");
+        final var fieldNames = new String[fields];
+        for (int i = 0; i < fields; i++) {
+            fieldNames[i] = "field" + i;
+            sdl.append(' ').append(fieldNames[i]).append(": String");
+            query.append(' ').append(fieldNames[i]);
+        }
+        sdl.append(" }");
+        query.append(" } }");
+        final var wiring = RuntimeWiring.newRuntimeWiring()
+                        .type("Query", builder -> builder.dataFetcher("orders", env -> {
+                            environment = env;
+                            return null;
+                        }))
+                        .build();
+        final var schema = new SchemaGenerator().makeExecutableSchema(new SchemaParser().parse(sdl.toString()),
+                        wiring);
+        final Map<String, Object> context = new HashMap<>();
+        context.put("Order", Fixtures.objectDef(fieldNames));
+        context.put(DataFetcherProvider.contextKey("Query", "orders"), new HashMap<>(Map.of("Type01", "Sales_Order",
+                        "StaticWhere01", "attribute[Status] eq 1")));
+        GraphQL.newGraphQL(schema).build().execute(ExecutionInput.newExecutionInput()
+                        .query(query.toString())
+                        .graphQLContext(context)
+                        .build());
+    }
+
+    @Benchmark
+    public Object compile()
+    {
+        return dataFetcher.compileFetchPlan(environment);
+    }
+
+    @Benchmark
+    public Object lookup()
+    {
+        return dataFetcher.getFetchPlan(environment);
+    }
+}
@@ -15,20 +15,35 @@
  */
 package org.efaps.esjp.graphql;
 
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
 
 import org.apache.commons.lang3.StringUtils;
 import org.efaps.admin.program.esjp.EFapsApplication;
 import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.eql.builder.Query;
+import org.efaps.eql.builder.Where;
+import org.efaps.eql2.Comparison;
+import org.efaps.eql2.bldr.AbstractWhereBuilder;
+import org.efaps.graphql.definition.ArgumentDef;
+import org.efaps.graphql.definition.FieldDef;
 import org.efaps.graphql.definition.ObjectDef;
 import org.efaps.graphql.providers.DataFetcherProvider;
+import org.efaps.graphql.providers.FieldType;
+import org.efaps.util.EFapsException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.DataFetcherResult;
 import graphql.schema.DataFetcher;
 import graphql.schema.DataFetchingEnvironment;
 import graphql.schema.GraphQLNamedSchemaElement;
@@ -42,6 +57,60 @@ public abstract class AbstractDataFetcher
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractDataFetcher.class);
 
+    /**
+     * Runs {@link #fetch(DataFetchingEnvironment)} and records it in the
+     * FieldMetrics and the Operation, so that all DataFetchers and mutations
+     * of this application are measured without an instrumentation of the
+     * GraphQL instance. Root fields rejected by the QueryCost of the
+     * operation are not fetched.
+     */
+    @Override
+    public Object get(final DataFetchingEnvironment environment)
+        throws Exception
+    {
+        checkInvalidation(environment);
+        final var operation = Operation.get(environment);
+        if (environment.getExecutionStepInfo().getPath().getLevel() == 1) {
+            final var error = operation.getQueryCost().getError(
+                            environment.getExecutionStepInfo().getPath().getSegmentName());
+            if (error != null) {
+                return DataFetcherResult.newResult()
+                                .error(GraphqlErrorBuilder.newError(environment).message(error).build())
+                                .build();
+            }
+        }
+        final var fetch = FieldMetrics.start(environment.getExecutionStepInfo().getObjectType().getName() + "."
+                        + environment.getFieldDefinition().getName());
+        Object result = null;
+        boolean error = true;
+        try {
+            result = fetch(environment);
+            error = result instanceof final DataFetcherResult<?> fetcherResult && fetcherResult.hasErrors();
+        } finally {
+            FieldMetrics.stop(fetch, result, error);
+            operation.add(fetch);
+        }
+        return result;
+    }
+
+    /**
+     * Fetches the value of the field, the EQL statements are executed with
+     * Statements.
+     */
+    protected abstract Object fetch(DataFetchingEnvironment environment)
+        throws Exception;
+
+    /**
+     * Checks for invalidations of the caches on other nodes at the start of
+     * each root field, before any cached definition or plan is used.
+     */
+    protected void checkInvalidation(final DataFetchingEnvironment environment)
+    {
+        if (environment.getExecutionStepInfo().getPath().getLevel() == 1) {
+            Caching.checkInvalidation();
+        }
+    }
+
     protected Properties getProperties(final DataFetchingEnvironment environment)
     {
         LOG.debug("Evaluating properties");
@@ -76,4 +145,99 @@ public abstract class AbstractDataFetcher
         return keyMapping;
     }
 
+    /**
+     * @return the definitions of the arguments of the current field
+     */
+    protected List<ArgumentDef> evalArgumentDefs(final DataFetchingEnvironment environment)
+    {
+        final var fieldName = environment.getFieldDefinition().getName();
+        final var parentTypeName = environment.getExecutionStepInfo().getObjectType().getName();
+        final Optional<ObjectDef> baseObjectDefOpt = environment.getGraphQlContext().getOrEmpty(parentTypeName);
+        final var ret = new ArrayList<ArgumentDef>();
+        if (baseObjectDefOpt.isPresent()) {
+            final FieldDef fieldDef = baseObjectDefOpt.get().getFields().get(fieldName);
+            if (fieldDef != null) {
+                ret.addAll(fieldDef.getArguments());
+            }
+        }
+        return ret;
+    }
+
+    protected Where evalWhere(final DataFetchingEnvironment environment,
+                              final List<ArgumentDef> argumentDefs,
+                              final Collection<String> whereElements,
+                              final Query query)
+        throws EFapsException
+    {
+
+        Where where = null;
+        for (final var entry : environment.getArguments().entrySet()) {
+            final var argDefOpt = argumentDefs.stream().filter(en -> en.getName().equals(entry.getKey()))
+                            .findFirst();
+            if (argDefOpt.isPresent() && StringUtils.isNotBlank(argDefOpt.get().getWhereStmt())) {
+                final var argDef = argDefOpt.get();
+                if (where == null) {
+                    where = query.where();
+                } else {
+                    where.and();
+                }
+                final var template = WhereTemplate.get(argDef, entry.getValue());
+                final var tmp = where.attr(template.getAttribute());
+                final var value = convertArgument(argDef.getFieldType(), entry.getValue());
+                addComparison(tmp, template.getComparison(), value);
+            }
+        }
+        LOG.debug("whereElements to add: {}", whereElements);
+        for (final var whereElement : whereElements) {
+            if (where == null) {
+                where = query.where();
+            } else {
+                where.and();
+            }
+            LOG.debug("staticWhere-whereElement: {}", whereElement);
+            final var template = WhereTemplate.get(whereElement);
+            final var tmp = where.attr(template.getAttribute());
+            addComparison(tmp, template.getComparison(), template.getValue());
+        }
+        return where;
+    }
+
+    protected void addComparison(final AbstractWhereBuilder<?> whereBldr,
+                                 final Comparison comparison,
+                                 final String value)
+    {
+        switch (comparison) {
+            case EQUAL -> whereBldr.eq(value);
+            case GREATER -> whereBldr.greater(value);
+            case GREATEREQ -> whereBldr.greaterOrEq(value);
+            case LESS -> whereBldr.less(value);
+            case LESSEQ -> whereBldr.lessOrEq(value);
+            case LIKE -> whereBldr.like(value);
+            case IN -> whereBldr.in(value);
+            case NOTIN -> whereBldr.notin(value);
+            case UNEQUAL -> whereBldr.uneq(value);
+            default -> LOG.error("Not working");
+        }
+
+    }
+
+    protected String convertArgument(final FieldType fieldType,
+                                     final Object value)
+        throws EFapsException
+    {
+        String ret;
+        switch (fieldType) {
+            case DATETIME:
+                if (value instanceof final OffsetDateTime offsetDateTime) {
+                    ret = offsetDateTime.toString();
+                } else {
+                    ret = Objects.toString(value);
+                }
+                break;
+            default:
+                ret = Objects.toString(value);
+        }
+        return ret;
+    }
+
 }
@@ -17,18 +17,23 @@ package org.efaps.esjp.graphql;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.regex.Pattern;
+import java.util.Set;
 
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.efaps.admin.datamodel.AttributeSet;
 import org.efaps.admin.datamodel.Type;
 import org.efaps.admin.program.esjp.EFapsApplication;
 import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.db.Instance;
 import org.efaps.eql.EQL;
 import org.efaps.eql.builder.Converter;
 import org.efaps.eql2.bldr.AbstractUpdateEQLBuilder;
+import org.efaps.esjp.common.properties.PropertiesUtil;
 import org.efaps.graphql.definition.FieldDef;
 import org.efaps.graphql.definition.ObjectDef;
 import org.efaps.util.EFapsException;
@@ -37,9 +42,6 @@ import org.slf4j.LoggerFactory;
 
 import graphql.schema.DataFetchingEnvironment;
 import graphql.schema.GraphQLInputObjectType;
-import graphql.schema.GraphQLList;
-import graphql.schema.GraphQLNonNull;
-import graphql.schema.GraphQLScalarType;
 
 @EFapsUUID("2ab24ee2-1a3f-4a83-bddc-77a10a6ec495")
 @EFapsApplication("eFaps-GraphQL")
@@ -68,32 +70,23 @@ public abstract class AbstractMutation
         final var values = new HashMap<String, Object>();
         final var objectDefOpt = environment.getGraphQlContext().<ObjectDef>getOrEmpty(inputObjectType.getName());
         if (objectDefOpt.isPresent()) {
-            final var objectDef = objectDefOpt.get();
-            for (final var entry : objectDef.getFields().entrySet()) {
-                final var fieldName = entry.getKey();
-                if (inputObject.containsKey(fieldName)) {
-                    final var inputFieldType = inputObjectType.getField(fieldName).getType();
-                    // if it is a simple type
-                    if (inputFieldType instanceof GraphQLScalarType || inputFieldType instanceof GraphQLNonNull) {
-                        values.put(getKey(entry.getValue()), inputObject.get(fieldName));
-                    }
-                    if (inputFieldType instanceof GraphQLList) {
-                        final var wrappedType = ((GraphQLList) inputFieldType).getWrappedType();
-                        if (wrappedType instanceof GraphQLInputObjectType) {
+            final var plan = WritePlan.get(Caching.getVersion(environment.getGraphQlContext()), getClass(),
+                            inputObjectType, objectDefOpt.get(), this::getKey);
+            for (final var entry : plan.getEntries()) {
+                if (inputObject.containsKey(entry.fieldName())) {
+                    final var inputValue = inputObject.get(entry.fieldName());
+                    switch (entry.kind()) {
+                        case LIST -> {
                             final var valueList = new ArrayList<Map<String, Object>>();
-                            for (final var listEntry : (List<?>) inputObject.get(fieldName)) {
-                                valueList.add(evalValues(environment, (GraphQLInputObjectType) wrappedType,
+                            for (final var listEntry : (List<?>) inputValue) {
+                                valueList.add(evalValues(environment, entry.inputObjectType(),
                                                 (Map<String, Object>) listEntry));
                             }
-                            values.put(getKey(entry.getValue()), valueList);
-                        } else {
-                            LOG.error("What???");
+                            values.put(entry.key(), valueList);
                         }
-                    }
-                    if (inputFieldType instanceof GraphQLInputObjectType) {
-                        final var fieldValue = evalValues(environment, (GraphQLInputObjectType) inputFieldType,
-                                        (Map<String, Object>) inputObject.get(fieldName));
-                        values.put(getKey(entry.getValue()), fieldValue);
+                        case OBJECT -> values.put(entry.key(), evalValues(environment, entry.inputObjectType(),
+                                        (Map<String, Object>) inputValue));
+                        default -> values.put(entry.key(), inputValue);
                     }
                 }
             }
@@ -102,39 +95,141 @@ public abstract class AbstractMutation
         return values;
     }
 
+    /**
+     * @return the instances selected by the properties Type01.., StaticWhere01..
+     *         and the arguments of the field with a where statement. Without
+     *         any filter nothing is selected, unless AllowUnfiltered=true.
+     */
+    protected List<Instance> evalInstances(final DataFetchingEnvironment environment,
+                                           final Properties props)
+        throws EFapsException
+    {
+        final var ret = new ArrayList<Instance>();
+        final var typeMap = PropertiesUtil.analyseProperty(props, "Type", 0);
+        if (!typeMap.isEmpty()) {
+            final var query = EQL.builder().print().query(typeMap.values().toArray(new String[typeMap.size()]));
+            final var where = evalWhere(environment, evalArgumentDefs(environment),
+                            PropertiesUtil.analyseProperty(props, "StaticWhere", 0).values(), query);
+            if (where == null && !BooleanUtils.toBoolean(props.getProperty("AllowUnfiltered"))) {
+                LOG.warn("No filter given, no instances are selected");
+            } else {
+                final var eval = Statements.evaluate(query.select().instance());
+                while (eval.next()) {
+                    ret.add(eval.inst());
+                }
+            }
+        }
+        LOG.debug("Instances: {}", ret.size());
+        return ret;
+    }
+
+    /**
+     * @return the chunk size for statements on many instances given by the
+     *         property ChunkSize, default 500
+     */
+    protected int getChunkSize(final Properties props)
+    {
+        return Integer.parseInt(props.getProperty("ChunkSize", "500"));
+    }
+
     protected String getKey(final FieldDef fieldDef)
     {
         return StringUtils.isEmpty(fieldDef.getSelect()) ? fieldDef.getName() : fieldDef.getSelect();
     }
 
+    protected void setValues(final Type type,
+                             final AbstractUpdateEQLBuilder<?> eqlBldr,
+                             final Map<String, Object> values,
+                             final LinktoResolver resolver)
+        throws EFapsException
+    {
+        for (final var entry : values.entrySet()) {
+            final var action = WritePlan.action(entry.getKey());
+            switch (action.type()) {
+                case ATTRIBUTE -> eqlBldr.set(action.name(), Converter.convert(entry.getValue()));
+                case LINKTO -> evalLinkto(type, eqlBldr, entry.getValue(), action.select(), resolver);
+                default -> LOG.debug("Ignoring {}", entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Inserts one entry of an attribute set that was resolved by the caller
+     * once for all entries. Every entry takes its own insert statement, EQL
+     * has no insert of several rows.
+     */
+    protected Instance insertAttributeSetEntry(final Instance parentInstance,
+                                               final AttributeSet attrSet,
+                                               final String attrName,
+                                               final Map<String, Object> values,
+                                               final LinktoResolver resolver)
+        throws EFapsException
+    {
+        final var stmt = EQL.builder().insert(attrSet)
+                        .set(attrName, Converter.convert(parentInstance));
+        setValues(attrSet, stmt, values, resolver);
+        return Statements.execute(stmt);
+    }
+
+    /**
+     * Evicts the responses of the type and of the types its values write or
+     * link to: attribute sets, classifications with their relation and the
+     * targets of linkto.
+     */
+    protected void evict(final Type type,
+                         final Map<String, Object> values,
+                         final LinktoResolver resolver)
+        throws EFapsException
+    {
+        final Set<Type> types = new LinkedHashSet<>();
+        collectTypes(type, values, resolver, types);
+        types.forEach(ResponseCache::evict);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collectTypes(final Type type,
+                              final Map<String, Object> values,
+                              final LinktoResolver resolver,
+                              final Set<Type> types)
+        throws EFapsException
+    {
+        types.add(type);
+        for (final var entry : values.entrySet()) {
+            final var action = WritePlan.action(entry.getKey());
+            switch (action.type()) {
+                case LINKTO -> types.add(type.getAttribute(resolver.getLinkAttributeName(action.select())).getLink());
+                case ATTRIBUTESET -> {
+                    final var attrSet = WritePlan.attributeSet(type, action.name());
+                    types.add(attrSet);
+                    if (entry.getValue() instanceof final List<?> entries) {
+                        for (final var valuesEntry : entries) {
+                            collectTypes(attrSet, (Map<String, Object>) valuesEntry, resolver, types);
+                        }
+                    }
+                }
+                case CLASS -> {
+                    final var classification = WritePlan.classification(action.name());
+                    types.add(classification.getClassifyRelationType());
+                    if (entry.getValue() instanceof final Map<?, ?> classValues) {
+                        collectTypes(classification, (Map<String, Object>) classValues, resolver, types);
+                    }
+                }
+                default -> LOG.debug("No type to evict for {}", entry.getKey());
+            }
+        }
+    }
+
     protected void evalLinkto(final Type type,
                               final AbstractUpdateEQLBuilder<?> eqlBldr,
                               final Object value,
-                              final String linkto)
+                              final String linkto,
+                              final LinktoResolver resolver)
         throws EFapsException
     {
         LOG.debug("Evaluating linkto: {}", linkto);
-        final var linktoPattern = Pattern.compile("linkto\\[([\\w\\d]+).*");
-        final var attrPattern = Pattern.compile("attribute\\[([\\w\\d]+).*");
-        final var linkMatcher = linktoPattern.matcher(linkto);
-        final var attrMatcher = attrPattern.matcher(linkto);
-        linkMatcher.find();
-        attrMatcher.find();
-        final var linkAttrName = linkMatcher.group(1);
-        final var linkAttr = type.getAttribute(linkAttrName);
-        final var linktoType = linkAttr.getLink();
-        final var attrName = attrMatcher.group(1);
-
-        final String crit = String.valueOf(value);
-
-        final var eval = EQL.builder().print()
-                        .query(linktoType.getName())
-                        .where()
-                        .attribute(attrName).eq(crit)
-                        .select().instance()
-                        .evaluate();
-        if (eval.next()) {
-            eqlBldr.set(linkAttrName, Converter.convert(eval.inst()));
+        final var inst = resolver.resolve(type, linkto, value);
+        if (inst != null) {
+            eqlBldr.set(resolver.getLinkAttributeName(linkto), Converter.convert(inst));
         }
     }
 
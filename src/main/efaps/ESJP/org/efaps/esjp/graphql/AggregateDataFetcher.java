@@ -0,0 +1,246 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.db.Instance;
+import org.efaps.eql.EQL;
+import org.efaps.esjp.db.InstanceUtils;
+import org.efaps.util.EFapsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.DataFetcherResult;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLTypeUtil;
+
+/**
+ * Returns count, sum, min and max over the objects selected with the same
+ * properties (Type, LinkFrom, StaticWhere) and arguments as the
+ * BaseDataFetcher, without handing the rows to the client.
+ * <p>
+ * If the field returns an object, the fields count, sum, min and max are
+ * filled as selected. If it returns a scalar, the property Function
+ * (COUNT, SUM, MIN, MAX) defines the value. The property Select defines the
+ * select the sum, min and max are calculated for.
+ * <p>
+ * EQL has no aggregate functions, so the values are not aggregated by the
+ * database: only the aggregated column is read with one query and
+ * aggregated here. The rows are bound by the property MaxRows (default
+ * 5000), a field that selects more rows is rejected with an error instead
+ * of reading the whole table. Multi-valued selects add each of their
+ * values, the count is the count of the objects.
+ */
+@EFapsUUID("346704af-4823-4ffb-a006-708ba502c32a")
+@EFapsApplication("eFaps-GraphQL")
+public class AggregateDataFetcher
+    extends BaseDataFetcher
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(AggregateDataFetcher.class);
+
+    private static final String VALUE_KEY = "__value";
+
+    private static final String ID_KEY = "__id";
+
+    private static final int MAX_ROWS = 5000;
+
+    @Override
+    protected Object fetch(final DataFetchingEnvironment environment)
+        throws Exception
+    {
+        LOG.debug("Running AggregateDataFetcher with: {}", environment);
+        final var resultBldr = DataFetcherResult.newResult();
+        final var plan = getFetchPlan(environment);
+        final var aggregate = evalAggregate(environment, plan);
+        if (aggregate == null) {
+            return resultBldr.error(GraphqlErrorBuilder.newError(environment)
+                            .message("More than %s objects to aggregate, the limit is set by MaxRows",
+                                            getMaxRows(plan))
+                            .build())
+                            .localContext(getLocalContext(environment))
+                            .build();
+        }
+        final var fieldType = GraphQLTypeUtil.unwrapNonNull(environment.getFieldDefinition().getType());
+        if (fieldType instanceof GraphQLObjectType) {
+            final var values = new HashMap<String, Object>();
+            values.put("count", aggregate.getCount());
+            values.put("sum", aggregate.getSum());
+            values.put("min", aggregate.getMin());
+            values.put("max", aggregate.getMax());
+            resultBldr.data(values);
+        } else {
+            resultBldr.data(switch (plan.getProperties().getProperty("Function", "COUNT").toUpperCase()) {
+                case "SUM" -> aggregate.getSum();
+                case "MIN" -> aggregate.getMin();
+                case "MAX" -> aggregate.getMax();
+                default -> aggregate.getCount();
+            });
+        }
+        return resultBldr.localContext(getLocalContext(environment)).build();
+    }
+
+    /**
+     * @return the aggregate, null if more than MaxRows objects are selected
+     */
+    protected Aggregate evalAggregate(final DataFetchingEnvironment environment,
+                                      final FetchPlan plan)
+        throws EFapsException
+    {
+        var ret = new Aggregate();
+        if (plan.getTypes().length > 0) {
+            final var select = plan.getProperties().getProperty("Select");
+            final var function = plan.getProperties().getProperty("Function", "COUNT");
+            final boolean values = select != null && (!"COUNT".equalsIgnoreCase(function)
+                            || environment.getSelectionSet().containsAnyOf("sum", "min", "max"));
+            final var maxRows = getMaxRows(plan);
+            final var query = EQL.builder().print().query(plan.getTypes());
+            var where = evalWhere(environment, plan.getArgumentDefs(), plan.getStaticWhere(), query);
+            if (plan.getLinkFrom() != null && environment.getSource() instanceof final Map<?, ?> source) {
+                final Instance parentInstance = (Instance) source.get("currentInstance");
+                if (InstanceUtils.isValid(parentInstance)) {
+                    if (where == null) {
+                        where = query.where();
+                    } else {
+                        where.and();
+                    }
+                    where.attr(plan.getLinkFrom()).eq(parentInstance);
+                }
+            }
+            final var print = query.select();
+            if (values) {
+                print.select(select).as(VALUE_KEY);
+            } else {
+                print.select("attribute[ID]").as(ID_KEY);
+            }
+            // one more to know if the limit is exceeded
+            print.limit(maxRows + 1);
+            final var eval = Statements.evaluate(print);
+            while (ret != null && eval.next()) {
+                if (ret.getCount() == maxRows) {
+                    LOG.warn("More than {} objects to aggregate for {}", maxRows,
+                                    environment.getExecutionStepInfo().getPath());
+                    ret = null;
+                } else {
+                    ret.add(values ? eval.get(VALUE_KEY) : null);
+                }
+            }
+        }
+        LOG.debug("Aggregate: {}", ret);
+        return ret;
+    }
+
+    protected int getMaxRows(final FetchPlan plan)
+    {
+        return Integer.parseInt(plan.getProperties().getProperty("MaxRows", String.valueOf(MAX_ROWS)));
+    }
+
+    public static class Aggregate
+    {
+
+        private long count;
+
+        private BigDecimal sum;
+
+        private Object min;
+
+        private Object max;
+
+        /**
+         * Adds an object, each value of a multi-valued select is aggregated.
+         */
+        public void add(final Object value)
+        {
+            count++;
+            if (value instanceof final Collection<?> collection) {
+                collection.forEach(this::addValue);
+            } else {
+                addValue(value);
+            }
+        }
+
+        protected void addValue(final Object value)
+        {
+            if (value instanceof final Number number) {
+                final var decimal = number instanceof final BigDecimal bigDecimal ? bigDecimal
+                                : new BigDecimal(number.toString());
+                sum = sum == null ? decimal : sum.add(decimal);
+            }
+            if (value instanceof Comparable) {
+                if (min == null || compare(value, min) < 0) {
+                    min = value;
+                }
+                if (max == null || compare(value, max) > 0) {
+                    max = value;
+                }
+            }
+        }
+
+        /**
+         * Numbers are compared by their decimal value, so that Long and
+         * BigDecimal can be mixed, other values of different classes by their
+         * string.
+         */
+        @SuppressWarnings("unchecked")
+        protected int compare(final Object value1,
+                              final Object value2)
+        {
+            final int ret;
+            if (value1 instanceof final Number number1 && value2 instanceof final Number number2) {
+                ret = new BigDecimal(number1.toString()).compareTo(new BigDecimal(number2.toString()));
+            } else if (value1.getClass().equals(value2.getClass())) {
+                ret = ((Comparable<Object>) value1).compareTo(value2);
+            } else {
+                ret = value1.toString().compareTo(value2.toString());
+            }
+            return ret;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public BigDecimal getSum()
+        {
+            return sum;
+        }
+
+        public Object getMin()
+        {
+            return min;
+        }
+
+        public Object getMax()
+        {
+            return max;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "count=" + count + ", sum=" + sum + ", min=" + min + ", max=" + max;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.lang3.BooleanUtils;
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.esjp.db.InstanceUtils;
+import org.efaps.util.EFapsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.DataFetcherResult;
+import graphql.execution.DataFetcherResult.Builder;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLInputObjectType;
+import graphql.schema.GraphQLTypeUtil;
+
+/**
+ * Creates one object per entry of a list of inputs and returns the list of
+ * OIDs in the same order. All entries are written in the transaction of the
+ * request. All entries are validated first, the errors of an entry are
+ * reported with its index. By default nothing is written if one entry is
+ * invalid. With the property ContinueOnError=true the invalid entries are
+ * skipped, their OID is null, and the valid ones are written. An error while
+ * writing aborts the mutation and with it the transaction, so no entry is
+ * committed partially.
+ * <p>
+ * EQL inserts one object per statement, so each entry is still its own
+ * insert. The linked objects of all entries are resolved up front by the
+ * LinktoResolver.
+ */
+@EFapsUUID("d8161f6d-f4f7-4ffb-bed6-bb0cfd69cb43")
+@EFapsApplication("eFaps-GraphQL")
+public class BaseBulkCreateMutation
+    extends BaseCreateMutation
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(BaseBulkCreateMutation.class);
+
+    @Override
+    protected Object fetch(final DataFetchingEnvironment environment)
+        throws Exception
+    {
+        LOG.info("Running bulk mutation: {}", this);
+        final var resultBldr = DataFetcherResult.newResult();
+        final var props = getProperties(environment);
+        final var continueOnError = BooleanUtils.toBoolean(props.getProperty("ContinueOnError"));
+        final var createType = evalCreateType(props);
+        final var oids = new ArrayList<String>();
+        final var valuesList = evalArgumentValueList(environment, props);
+        LOG.debug("Creating {} objects of type {}", valuesList.size(), createType);
+        final var valid = new boolean[valuesList.size()];
+        boolean allValid = true;
+        for (int idx = 0; idx < valuesList.size(); idx++) {
+            valid[idx] = validateEntry(environment, idx, valuesList.get(idx), resultBldr);
+            allValid = allValid && valid[idx];
+        }
+        if (allValid || continueOnError) {
+            final var resolver = new LinktoResolver(props);
+            for (int idx = 0; idx < valuesList.size(); idx++) {
+                if (valid[idx]) {
+                    resolver.prefetch(createType, valuesList.get(idx));
+                }
+            }
+            for (int idx = 0; idx < valuesList.size(); idx++) {
+                String oid = null;
+                if (valid[idx]) {
+                    final var inst = executeStmt(createType, valuesList.get(idx), resolver);
+                    oid = InstanceUtils.isValid(inst) ? inst.getOid() : null;
+                }
+                oids.add(oid);
+            }
+        } else {
+            LOG.warn("Invalid entries, nothing is created");
+        }
+        return resultBldr.data(oids).build();
+    }
+
+    /**
+     * Validates one entry, its errors are reported with the index of the
+     * entry.
+     *
+     * @return true if the entry is valid
+     */
+    protected boolean validateEntry(final DataFetchingEnvironment environment,
+                                    final int idx,
+                                    final Map<String, Object> values,
+                                    final Builder<Object> resultBldr)
+        throws EFapsException
+    {
+        final var entryBldr = DataFetcherResult.newResult();
+        final var ret = validateValues(environment, values, entryBldr);
+        for (final var error : entryBldr.build().getErrors()) {
+            resultBldr.error(GraphqlErrorBuilder.newError(environment)
+                            .path(environment.getExecutionStepInfo().getPath().segment(idx))
+                            .errorType(error.getErrorType())
+                            .extensions(error.getExtensions())
+                            .message("Entry %s: %s", idx, error.getMessage())
+                            .build());
+        }
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected List<Map<String, Object>> evalArgumentValueList(final DataFetchingEnvironment environment,
+                                                              final Properties props)
+    {
+        LOG.debug("Evaluating list of arguments");
+        final var inputVariableName = props.getProperty("InputVariable", "input");
+        final var inputObjectType = (GraphQLInputObjectType) GraphQLTypeUtil.unwrapAll(environment
+                        .getFieldDefinition().getArgument(inputVariableName).getType());
+        final var ret = new ArrayList<Map<String, Object>>();
+        final List<?> inputObjects = environment.getArgument(inputVariableName);
+        if (inputObjects != null) {
+            for (final var inputObject : inputObjects) {
+                ret.add(evalValues(environment, inputObjectType, (Map<String, Object>) inputObject));
+            }
+        }
+        return ret;
+    }
+}
@@ -15,20 +15,18 @@
  */
 package org.efaps.esjp.graphql;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
 
-import org.efaps.admin.datamodel.AttributeSet;
-import org.efaps.admin.datamodel.Classification;
 import org.efaps.admin.datamodel.Type;
 import org.efaps.admin.program.esjp.EFapsApplication;
 import org.efaps.admin.program.esjp.EFapsUUID;
 import org.efaps.db.Instance;
 import org.efaps.eql.EQL;
 import org.efaps.eql.builder.Converter;
-import org.efaps.eql.builder.Insert;
 import org.efaps.esjp.db.InstanceUtils;
 import org.efaps.util.EFapsException;
 import org.efaps.util.UUIDUtil;
@@ -48,7 +46,7 @@ public class BaseCreateMutation
     private static final Logger LOG = LoggerFactory.getLogger(BaseCreateMutation.class);
 
     @Override
-    public Object get(final DataFetchingEnvironment environment)
+    protected Object fetch(final DataFetchingEnvironment environment)
         throws Exception
     {
         LOG.info("Running mutation: {}", this);
@@ -57,7 +55,9 @@ public class BaseCreateMutation
         final var values = evalArgumentValues(environment, props);
         if (validateValues(environment, values, resultBldr)) {
             final var createType = evalCreateType(props);
-            final var inst = executeStmt(createType, values);
+            final var resolver = new LinktoResolver(props);
+            resolver.prefetch(createType, values);
+            final var inst = executeStmt(createType, values, resolver);
             if (InstanceUtils.isValid(inst)) {
                 resultBldr.data(inst.getOid());
             }
@@ -88,74 +88,57 @@ public class BaseCreateMutation
 
     @SuppressWarnings("unchecked")
     protected Instance executeStmt(final Type type,
-                                   final Map<String, Object> values)
+                                   final Map<String, Object> values,
+                                   final LinktoResolver resolver)
         throws EFapsException
     {
         LOG.debug("Execute base stmt");
         final var stmt = EQL.builder().insert(type);
+        final var children = new ArrayList<Map.Entry<String, Object>>();
         for (final var entry : values.entrySet()) {
-            final var field = entry.getKey().trim();
-            if (field.startsWith("attribute[")) {
-                final String attrName = field.substring(10, field.length() - 1);
-                stmt.set(attrName, Converter.convert(entry.getValue()));
-            }
-            if (field.startsWith("linkto[")) {
-                evalLinkto(type, stmt, entry.getValue(), field);
+            final var action = WritePlan.action(entry.getKey());
+            switch (action.type()) {
+                case ATTRIBUTE -> stmt.set(action.name(), Converter.convert(entry.getValue()));
+                case LINKTO -> evalLinkto(type, stmt, entry.getValue(), action.select(), resolver);
+                case ATTRIBUTESET, CLASS -> children.add(entry);
+                default -> LOG.debug("Ignoring {}", entry.getKey());
             }
         }
-        final var inst = stmt.execute();
-        for (final var entry : values.entrySet()) {
-            final var field = entry.getKey().trim();
-            if (field.startsWith("attributeset[")) {
+        final var inst = Statements.execute(stmt);
+        evict(type, values, resolver);
+        for (final var entry : children) {
+            final var action = WritePlan.action(entry.getKey());
+            if (action.type() == WritePlan.ActionType.ATTRIBUTESET) {
+                final var attrSet = WritePlan.attributeSet(inst.getType(), action.name());
                 for (final var valuesEntry : (List<Map<String, Object>>) entry.getValue()) {
-                    executeStmt(inst, field, valuesEntry);
+                    insertAttributeSetEntry(inst, attrSet, action.name(), valuesEntry, resolver);
                 }
-            }
-            if (field.startsWith("class[")) {
-                executeStmt(inst, field, (Map<String, Object>) entry.getValue());
+            } else {
+                executeStmt(inst, action.select(), (Map<String, Object>) entry.getValue(), resolver);
             }
         }
         return inst;
     }
 
+    /**
+     * Inserts the classification of the select, e.g. "class[Name]", together
+     * with its relation, one insert statement each.
+     */
     protected Instance executeStmt(final Instance parentInstance,
                                    final String select,
-                                   final Map<String, Object> values)
+                                   final Map<String, Object> values,
+                                   final LinktoResolver resolver)
         throws EFapsException
     {
-
-        Type type = null;
-        Insert stmt = null;
-        if (select.startsWith("attributeset[")) {
-            final var attrName = select.substring(13, select.length() - 1);
-            final var attrSet = AttributeSet.find(parentInstance.getType().getName(), attrName);
-            stmt = EQL.builder().insert(attrSet)
-                            .set(attrName, Converter.convert(parentInstance));
-            type = attrSet;
-        } else if (select.startsWith("class[")) {
-            final var classTypeName = select.substring(6, select.length() - 1);
-            final var classification = Classification.get(classTypeName);
-            type = classification;
-            EQL.builder().insert(classification.getClassifyRelationType())
-                            .set(classification.getRelLinkAttributeName(), Converter.convert(parentInstance))
-                            .set(classification.getRelTypeAttributeName(), Converter.convert(classification.getId()))
-                            .execute();
-            stmt = EQL.builder().insert(classification)
-                            .set(classification.getLinkAttributeName(), Converter.convert(parentInstance));
-        }
-
-        for (final var entry : values.entrySet()) {
-            final var field = entry.getKey().trim();
-            if (field.startsWith("attribute[")) {
-                final String attrName = field.substring(10, field.length() - 1);
-                stmt.set(attrName, Converter.convert(entry.getValue()));
-            }
-            if (field.startsWith("linkto[")) {
-                evalLinkto(type, stmt, entry.getValue(), field);
-            }
-        }
+        final var classification = WritePlan.classification(WritePlan.action(select).name());
+        Statements.execute(EQL.builder().insert(classification.getClassifyRelationType())
+                        .set(classification.getRelLinkAttributeName(), Converter.convert(parentInstance))
+                        .set(classification.getRelTypeAttributeName(), Converter.convert(classification.getId())));
+        final var stmt = EQL.builder().insert(classification)
+                        .set(classification.getLinkAttributeName(), Converter.convert(parentInstance));
+        setValues(classification, stmt, values, resolver);
         LOG.debug("EQL-Stmt: {}", stmt.build());
-        return stmt.execute();
+        return Statements.execute(stmt);
     }
 
 }
@@ -15,16 +15,20 @@
  */
 package org.efaps.esjp.graphql;
 
-import java.time.OffsetDateTime;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Properties;
 
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.efaps.admin.program.esjp.EFapsApplication;
 import org.efaps.admin.program.esjp.EFapsUUID;
@@ -32,31 +36,24 @@ import org.efaps.db.Instance;
 import org.efaps.db.stmt.selection.Evaluator;
 import org.efaps.eql.EQL;
 import org.efaps.eql.builder.Print;
-import org.efaps.eql.builder.Query;
 import org.efaps.eql.builder.Where;
-import org.efaps.eql2.Comparison;
-import org.efaps.eql2.EQL2;
-import org.efaps.eql2.IWhereElementTerm;
-import org.efaps.eql2.bldr.AbstractWhereBuilder;
-import org.efaps.eql2.impl.PrintQueryStatement;
-import org.efaps.esjp.common.properties.PropertiesUtil;
 import org.efaps.esjp.db.InstanceUtils;
-import org.efaps.graphql.definition.ArgumentDef;
 import org.efaps.graphql.definition.FieldDef;
 import org.efaps.graphql.definition.ObjectDef;
-import org.efaps.graphql.providers.DataFetcherProvider;
-import org.efaps.graphql.providers.FieldType;
 import org.efaps.util.EFapsException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import graphql.GraphqlErrorBuilder;
 import graphql.execution.DataFetcherResult;
+import graphql.execution.ResultPath;
 import graphql.schema.DataFetchingEnvironment;
 import graphql.schema.FieldCoordinates;
 import graphql.schema.GraphQLList;
 import graphql.schema.GraphQLNamedType;
 import graphql.schema.GraphQLObjectType;
 import graphql.schema.GraphQLType;
+import graphql.schema.GraphQLTypeUtil;
 import graphql.schema.SelectedField;
 
 @EFapsUUID("3c405c05-9940-4eea-8d59-959b4890f4b3")
@@ -67,70 +64,86 @@ public abstract class BaseDataFetcher_Base
 
     private static final Logger LOG = LoggerFactory.getLogger(BaseDataFetcher.class);
 
+    private static final String INSTANCES_KEY = "__instances:";
+
+    private static final String BATCH_KEY = "__batch:";
+
+    /** Maximal number of parents in the in clause of a batched LinkFrom. */
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String PAGE_KEY = "__page";
+
+    private static final String ORDER_KEY = "__order";
+
     @Override
-    public Object get(final DataFetchingEnvironment _environment)
+    protected Object fetch(final DataFetchingEnvironment _environment)
         throws Exception
     {
         LOG.debug("Running BaseDataFetcher with: {}", _environment);
         final var resultBldr = DataFetcherResult.newResult();
         final List<Map<String, Object>> values = new ArrayList<>();
-        final var fieldName = _environment.getFieldDefinition().getName();
-        final var parentTypeName = _environment.getExecutionStepInfo().getObjectType().getName();
-        final Optional<ObjectDef> baseObjectDefOpt = _environment.getGraphQlContext()
-                        .getOrEmpty(parentTypeName);
-        final var argumentDefs = new ArrayList<ArgumentDef>();
-        if (baseObjectDefOpt.isPresent()) {
-            final FieldDef fieldDef = baseObjectDefOpt.get().getFields().get(fieldName);
-            if (fieldDef != null) {
-                argumentDefs.addAll(fieldDef.getArguments());
-            }
-        }
-        final String contextKey = DataFetcherProvider.contextKey(parentTypeName, fieldName);
-        final var props = _environment.getGraphQlContext().getOrDefault(contextKey,
-                        new HashMap<>());
-        final var properties = new Properties();
-        properties.putAll(props);
-        final Map<Integer, String> types = PropertiesUtil.analyseProperty(properties, "Type", 0);
-        final Map<Integer, String> linkFroms = PropertiesUtil.analyseProperty(properties, "LinkFrom", 0);
-        final Map<Integer, String> staticKeys = PropertiesUtil.analyseProperty(properties, "StaticKey", 0);
-        final Map<Integer, String> staticValues = PropertiesUtil.analyseProperty(properties, "StaticValue", 0);
-        final Map<Integer, String> staticWhere = PropertiesUtil.analyseProperty(properties, "StaticWhere", 0);
-        LOG.debug("properties: {}", properties);
-
+        final var plan = getFetchPlan(_environment);
         final var localContext = getLocalContext(_environment);
-
-        GraphQLType graphQLType = _environment.getExecutionStepInfo().getFieldDefinition().getType();
-        if (graphQLType instanceof GraphQLList) {
-            graphQLType = ((GraphQLList) graphQLType).getWrappedType();
+        // fields without types could not be evicted
+        final var cacheKey = plan.getCacheTTL() == null || plan.getTypes().length == 0 ? null
+                        : ResponseCache.key(_environment, plan);
+        if (cacheKey != null) {
+            final var cached = ResponseCache.get(cacheKey);
+            if (cached != null) {
+                LOG.debug("Serving from ResponseCache: {}", cacheKey);
+                registerInstances(_environment, localContext, cached.values());
+                return resultBldr.data(cached.data()).localContext(localContext).build();
+            }
         }
-        final var graphTypeName = ((GraphQLNamedType) graphQLType).getName();
-        final Optional<ObjectDef> objectDefOpt = _environment.getGraphQlContext().getOrEmpty(graphTypeName);
-        if (objectDefOpt.isPresent()) {
-            final var objectDef = objectDefOpt.get();
+        Page page = null;
+        if (plan.getObjectDef() != null) {
             Print print = null;
-            if (!types.isEmpty()) {
-                final var query = EQL.builder().print()
-                                .query(types.values().toArray(new String[types.values().size()]));
-
-                Where where = evalWhere(_environment, argumentDefs, staticWhere.values(), query);
-
-                if (!linkFroms.isEmpty()) {
-                    final Instance parentInstance = (Instance) ((Map<?, ?>) _environment.getSource())
-                                    .get("currentInstance");
+            if (plan.getTypes().length > 0) {
+                final Instance parentInstance = plan.getLinkFrom() == null ? null
+                                : (Instance) ((Map<?, ?>) _environment.getSource()).get("currentInstance");
+                final boolean batched = plan.isLinkFromBatch() && InstanceUtils.isValid(parentInstance);
+                final var orderBy = evalOrderBy(_environment, plan, resultBldr);
+                page = evalPage(_environment, plan, resultBldr);
+                final var pageError = validatePage(_environment, plan, page, orderBy);
+                if (pageError != null) {
+                    resultBldr.error(GraphqlErrorBuilder.newError(_environment)
+                                    .message(pageError)
+                                    .build());
+                    return resultBldr.data(plan.isConnection() ? getConnection(values, null) : values)
+                                    .localContext(localContext)
+                                    .build();
+                }
+                if (batched) {
+                    values.addAll(getBatchedValues(_environment, localContext, plan, orderBy, page,
+                                    parentInstance));
+                } else {
+                    final var query = EQL.builder().print().query(plan.getTypes());
+                    Where where = evalWhere(_environment, plan.getArgumentDefs(), plan.getStaticWhere(), query);
+                    if (page != null && page.getAfter() != null) {
+                        if (where == null) {
+                            where = query.where();
+                        } else {
+                            where.and();
+                        }
+                        where.attr("ID").greater(String.valueOf(page.getAfter()));
+                    }
                     if (InstanceUtils.isValid(parentInstance)) {
                         if (where == null) {
                             where = query.where();
                         } else {
                             where.and();
                         }
-                        where.attr(linkFroms.values().iterator().next()).eq(parentInstance);
+                        where.attr(plan.getLinkFrom()).eq(parentInstance);
                     }
+                    print = query.select();
+                    order(print, orderBy);
+                    paginate(print, page);
                 }
-                print = query.select();
             } else {
                 // if the type is empty --> check if we got a list of instances
                 // or one instance
-                final var selectValue = ((Map<?, ?>) _environment.getSource()).get(fieldName);
+                final var selectValue = ((Map<?, ?>) _environment.getSource())
+                                .get(_environment.getFieldDefinition().getName());
                 if (selectValue != null) {
                     if (selectValue instanceof List) {
                         @SuppressWarnings("unchecked") final var instances = ((List<Instance>) selectValue).stream()
@@ -145,180 +158,299 @@ public abstract class BaseDataFetcher_Base
                 }
             }
             if (print != null) {
-                // get the first level of fields (ImmediateFields)
-                for (final var selectedField : _environment.getSelectionSet().getImmediateFields()) {
-                    if (objectDef.getFields().containsKey(selectedField.getName())) {
-                        final boolean hasDataFetcher = _environment.getGraphQLSchema().getCodeRegistry().hasDataFetcher(
-                                        FieldCoordinates.coordinates(graphTypeName, selectedField.getName()));
-                        if ((selectedField.getType() instanceof GraphQLObjectType
-                                        || selectedField.getType() instanceof GraphQLList) && !hasDataFetcher) {
-                            addChildSelect(_environment, selectedField, print, objectDef, "");
-                        } else {
-                            final FieldDef fieldDef = objectDef.getFields().get(selectedField.getName());
-                            if (StringUtils.isNotBlank(fieldDef.getSelect())) {
-                                print.select(fieldDef.getSelect()).as(selectedField.getFullyQualifiedName());
-                            }
-                        }
-                    }
-                }
-                final var eval = print.evaluate();
+                addSelects(plan, print);
+                final var eval = Statements.evaluate(print);
                 while (eval.next()) {
-                    final var map = new HashMap<String, Object>();
-                    for (final var entry : staticKeys.entrySet()) {
-                        map.put(entry.getValue(), staticValues.get(entry.getKey()));
-                    }
-                    for (final var selectedField : _environment.getSelectionSet().getImmediateFields()) {
-                        final boolean hasDataFetcher = _environment.getGraphQLSchema().getCodeRegistry().hasDataFetcher(
-                                        FieldCoordinates.coordinates(graphTypeName, selectedField.getName()));
-                        if ((selectedField.getType() instanceof GraphQLObjectType
-                                        || selectedField.getType() instanceof GraphQLList) && !hasDataFetcher) {
-                            map.put(selectedField.getName(), getChildValue(_environment, selectedField, eval));
-                        } else if (!map.containsKey(selectedField.getName())) {
-                            map.put(selectedField.getName(),
-                                            eval.get(selectedField.getFullyQualifiedName()));
-                        }
-                    }
-                    map.put("currentInstance", eval.inst());
-                    values.add(map);
+                    values.add(evalRow(plan, eval));
                 }
             }
         }
-        return resultBldr.data(values)
+        if (page != null) {
+            page.evalValues(values);
+        }
+        registerInstances(_environment, localContext, values);
+        final var result = resultBldr.data(plan.isConnection() ? getConnection(values, page) : values)
                         .localContext(localContext)
                         .build();
+        if (cacheKey != null && !result.hasErrors()) {
+            ResponseCache.put(cacheKey, new ResponseCache.Entry(values, result.getData(), plan.getTypes(),
+                            System.currentTimeMillis() + plan.getCacheTTL() * 1000L));
+        }
+        return result;
+    }
+
+    protected FetchPlan getFetchPlan(final DataFetchingEnvironment environment)
+    {
+        final var fieldName = environment.getFieldDefinition().getName();
+        final var parentTypeName = environment.getExecutionStepInfo().getObjectType().getName();
+        return FetchPlan.get(FetchPlan.key(parentTypeName, fieldName, environment.getSelectionSet()),
+                        Caching.getVersion(environment.getGraphQlContext()), key -> compileFetchPlan(environment));
+    }
+
+    protected FetchPlan compileFetchPlan(final DataFetchingEnvironment environment)
+    {
+        final var fieldName = environment.getFieldDefinition().getName();
+        final var parentTypeName = environment.getExecutionStepInfo().getObjectType().getName();
+        LOG.debug("Compiling FetchPlan for {}.{}", parentTypeName, fieldName);
+        final var argumentDefs = evalArgumentDefs(environment);
+        final var properties = getProperties(environment);
+        GraphQLType graphQLType = environment.getExecutionStepInfo().getFieldDefinition().getType();
+        if (graphQLType instanceof GraphQLList) {
+            graphQLType = ((GraphQLList) graphQLType).getWrappedType();
+        }
+        List<SelectedField> selectedFields = environment.getSelectionSet().getImmediateFields();
+        if (BooleanUtils.toBoolean(properties.getProperty("Connection"))) {
+            // the rows are the nodes of the edges of the connection
+            final var edgeType = (GraphQLObjectType) GraphQLTypeUtil.unwrapAll(((GraphQLObjectType) GraphQLTypeUtil
+                            .unwrapAll(graphQLType)).getFieldDefinition("edges").getType());
+            graphQLType = GraphQLTypeUtil.unwrapAll(edgeType.getFieldDefinition("node").getType());
+            selectedFields = new ArrayList<>();
+            for (final var nodeField : environment.getSelectionSet().getFields("edges/node")) {
+                selectedFields.addAll(nodeField.getSelectionSet().getImmediateFields());
+            }
+        }
+        final var graphTypeName = ((GraphQLNamedType) graphQLType).getName();
+        final Optional<ObjectDef> objectDefOpt = environment.getGraphQlContext().getOrEmpty(graphTypeName);
+        final var plan = new FetchPlan(Caching.getVersion(environment.getGraphQlContext()), properties,
+                        graphTypeName, objectDefOpt.orElse(null), argumentDefs);
+        if (objectDefOpt.isPresent()) {
+            final var objectDef = objectDefOpt.get();
+            // get the first level of fields (ImmediateFields)
+            for (final var selectedField : selectedFields) {
+                final FieldDef fieldDef = objectDef.getFields().get(selectedField.getName());
+                if (fieldDef != null) {
+                    final boolean hasDataFetcher = environment.getGraphQLSchema().getCodeRegistry().hasDataFetcher(
+                                    FieldCoordinates.coordinates(graphTypeName, selectedField.getName()));
+                    if ((selectedField.getType() instanceof GraphQLObjectType
+                                    || selectedField.getType() instanceof GraphQLList) && !hasDataFetcher) {
+                        plan.addField(addChildSelect(environment, selectedField, plan, objectDef, ""));
+                    } else if (StringUtils.isNotBlank(fieldDef.getSelect())) {
+                        plan.addSelect(selectedField.getFullyQualifiedName(), fieldDef.getSelect());
+                        if (!plan.getStaticValues().containsKey(selectedField.getName())) {
+                            plan.addField(new FetchPlan.Field(selectedField.getName(),
+                                            selectedField.getFullyQualifiedName(), FetchPlan.Kind.VALUE, null));
+                        }
+                    }
+                }
+            }
+        }
+        return plan;
+    }
+
+    protected void addSelects(final FetchPlan plan,
+                              final Print print)
+    {
+        for (final var entry : plan.getSelects().entrySet()) {
+            print.select(entry.getValue()).as(entry.getKey());
+        }
     }
 
-    protected Where evalWhere(final DataFetchingEnvironment environment,
-                              final List<ArgumentDef> argumentDefs,
-                              final Collection<String> whereElements,
-                              final Query query)
+    protected Map<String, Object> evalRow(final FetchPlan plan,
+                                          final Evaluator eval)
         throws EFapsException
     {
+        final var row = plan.newRow();
+        row.set(0, eval.inst());
+        int slot = 1;
+        for (final var field : plan.getFields()) {
+            if (FetchPlan.Kind.VALUE.equals(field.getKind())) {
+                row.set(slot++, eval.get(field.getAlias()));
+            } else {
+                row.set(slot++, getChildValue(field, eval));
+            }
+        }
+        return row;
+    }
 
-        Where where = null;
-        for (final var entry : environment.getArguments().entrySet()) {
-            final var argDefOpt = argumentDefs.stream().filter(en -> en.getName().equals(entry.getKey()))
-                            .findFirst();
-            if (argDefOpt.isPresent()) {
-                final var argDef = argDefOpt.get();
+    /**
+     * Evaluates the values of a LinkFrom field for all parents of the current
+     * execution level with one query per BATCH_SIZE parents. The rows are
+     * split by parent and kept in the local context, so the calls for the
+     * sibling parents are served without another query. The size of the
+     * page (PageSize, MaxPageSize) applies per parent: only one row more
+     * than the page is kept for each parent, to know if there is a next page.
+     */
+    @SuppressWarnings("unchecked")
+    protected List<Map<String, Object>> getBatchedValues(final DataFetchingEnvironment environment,
+                                                         final Map<String, Object> localContext,
+                                                         final FetchPlan plan,
+                                                         final Map<String, Boolean> orderBy,
+                                                         final Page page,
+                                                         final Instance parentInstance)
+        throws EFapsException
+    {
+        final var batch = (Map<Long, List<Map<String, Object>>>) localContext.computeIfAbsent(
+                        BATCH_KEY + getFieldPath(environment.getExecutionStepInfo().getPath()),
+                        key -> new HashMap<>());
+        if (!batch.containsKey(parentInstance.getId())) {
+            final var parentInstances = new ArrayList<Instance>();
+            final var registered = (List<Instance>) localContext.get(INSTANCES_KEY + getParentPath(environment));
+            if (registered != null) {
+                parentInstances.addAll(registered);
+            }
+            parentInstances.add(parentInstance);
+            // parents of earlier rows of the same field are already in the batch
+            final var ids = new ArrayList<String>();
+            for (final var instance : parentInstances) {
+                if (batch.putIfAbsent(instance.getId(), new ArrayList<>()) == null) {
+                    ids.add(String.valueOf(instance.getId()));
+                }
+            }
+            LOG.debug("Batching LinkFrom '{}' for {} parents", plan.getLinkFrom(), ids.size());
+            for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+                final var chunk = ids.subList(i, Math.min(i + BATCH_SIZE, ids.size()));
+                final var query = EQL.builder().print().query(plan.getTypes());
+                var where = evalWhere(environment, plan.getArgumentDefs(), plan.getStaticWhere(), query);
                 if (where == null) {
                     where = query.where();
                 } else {
                     where.and();
                 }
-
-                final var stmt = (PrintQueryStatement) EQL2.parse("print query type TYPE where "
-                                + String.format(argDef.getWhereStmt(), entry.getValue())
-                                + " select attribute[OID]");
-                final var tmp = where.attr(((IWhereElementTerm) stmt.getQuery().getWhere().getTerms(0))
-                                .element().getAttribute());
-
-                final var value = convertArgument(argDef.getFieldType(), entry.getValue());
-
-                addComparison(tmp, ((IWhereElementTerm) stmt.getQuery().getWhere().getTerms(0)).element()
-                                .getComparison(), value);
+                where.attr(plan.getLinkFrom()).in(chunk.toArray(new String[chunk.size()]));
+                final var print = query.select();
+                print.select("attribute[" + plan.getLinkFrom() + "]").as(BATCH_KEY);
+                order(print, orderBy);
+                if (page != null) {
+                    // the same order as the page of a field that is not batched
+                    print.select("attribute[ID]").as(PAGE_KEY);
+                    print.orderBy(PAGE_KEY);
+                }
+                addSelects(plan, print);
+                final var eval = Statements.evaluate(print);
+                while (eval.next()) {
+                    final Object linkId = eval.get(BATCH_KEY);
+                    if (linkId instanceof final Number number) {
+                        final var rows = batch.get(number.longValue());
+                        if (rows != null && (page == null || page.getFirst() == null
+                                        || rows.size() <= page.getFirst())) {
+                            rows.add(evalRow(plan, eval));
+                        }
+                    }
+                }
             }
         }
-        LOG.debug("whereElements to add: {}", whereElements);
-        for (final var whereElement : whereElements) {
-            if (where == null) {
-                where = query.where();
-            } else {
-                where.and();
+        return batch.get(parentInstance.getId());
+    }
+
+    /**
+     * Registers the instances of the rows for the batched LinkFrom fields
+     * below. The instances are collected per field, not per row, so that the
+     * local context does not grow with the number of rows.
+     */
+    @SuppressWarnings("unchecked")
+    protected void registerInstances(final DataFetchingEnvironment environment,
+                                     final Map<String, Object> localContext,
+                                     final List<Map<String, Object>> values)
+    {
+        final var instances = (List<Instance>) localContext.computeIfAbsent(
+                        INSTANCES_KEY + getFieldPath(environment.getExecutionStepInfo().getPath()),
+                        key -> new ArrayList<>());
+        for (final var value : values) {
+            if (value.get("currentInstance") instanceof final Instance instance) {
+                instances.add(instance);
             }
-            LOG.info("staticWhere-whereElement: {}", whereElement);
-            final var stmt = (PrintQueryStatement) EQL2.parse("print query type TYPE where "
-                            + whereElement
-                            + " select attribute[OID]");
-            final var elementTerm = ((IWhereElementTerm) stmt.getQuery().getWhere().getTerms(0)).element();
-            final var tmp = where.attr(elementTerm.getAttribute());
-            addComparison(tmp, elementTerm.getComparison(), elementTerm.getValues(0));
-        }
-        return where;
+        }
     }
 
-    protected void addComparison(final AbstractWhereBuilder<?> whereBldr,
-                                 final Comparison comparison,
-                                 final String value)
+    /**
+     * @return the path of the field the parent rows were fetched for
+     */
+    protected String getParentPath(final DataFetchingEnvironment environment)
     {
-        switch (comparison) {
-            case EQUAL -> whereBldr.eq(value);
-            case GREATER -> whereBldr.greater(value);
-            case GREATEREQ -> whereBldr.greaterOrEq(value);
-            case LESS -> whereBldr.less(value);
-            case LESSEQ -> whereBldr.lessOrEq(value);
-            case LIKE -> whereBldr.like(value);
-            case IN -> whereBldr.in(value);
-            case NOTIN -> whereBldr.notin(value);
-            case UNEQUAL -> whereBldr.uneq(value);
-            default -> LOG.error("Not working");
+        var path = environment.getExecutionStepInfo().getPath().getParent();
+        if (path.isListSegment()) {
+            path = path.getParent();
         }
+        return getFieldPath(path);
+    }
 
+    /**
+     * @return the path without the list indices, the same for all rows
+     */
+    protected String getFieldPath(final ResultPath path)
+    {
+        return String.join("/", path.getKeysOnly());
     }
 
-    @SuppressWarnings("unchecked")
-    protected Object getChildValue(final DataFetchingEnvironment environment,
-                                   final SelectedField selectedField,
+    protected Object getChildValue(final FetchPlan.Field field,
                                    final Evaluator eval)
         throws EFapsException
     {
         Object ret = null;
-        if (selectedField.getType() instanceof GraphQLList) {
-            LOG.debug("Get child value for ObjectList: {}", selectedField);
-            final var valueList = new ArrayList<Map<String, Object>>();
-            final var tmp = new HashMap<String, List<Object>>();
-            for (final var childField : environment.getSelectionSet().getFields(selectedField.getName() + "/*")) {
-                if (childField.getType() instanceof GraphQLObjectType) {
-                    tmp.put(childField.getName(), (List<Object>) getChildValue(environment, childField, eval));
+        if (FetchPlan.Kind.LIST.equals(field.getKind())) {
+            LOG.debug("Get child value for ObjectList: {}", field.getName());
+            ret = transpose(field, eval, false);
+        } else {
+            final var row = field.newRow();
+            final var children = field.getChildren();
+            for (int slot = 0; slot < children.size(); slot++) {
+                final var childField = children.get(slot);
+                if (FetchPlan.Kind.VALUE.equals(childField.getKind())) {
+                    row.set(slot, eval.get(childField.getAlias()));
                 } else {
-                    tmp.put(childField.getName(),
-                                    eval.get(childField.getFullyQualifiedName()));
+                    row.set(slot, getChildValue(childField, eval));
                 }
             }
-            LOG.debug(" tmp result: {}", tmp);
-
-            for (final var entry : tmp.entrySet()) {
-                if (valueList.isEmpty()) {
-                    int counter = 0;
-                    while (counter < entry.getValue().size()) {
-                        valueList.add(new HashMap<>());
-                        counter++;
-                    }
-                }
-                final var valueIter = valueList.iterator();
-                for (final Object element : entry.getValue()) {
-                    valueIter.next().put(entry.getKey(), element);
-                }
+            ret = row;
+        }
+        return ret;
+    }
+
+    /**
+     * Turns the value lists of the child fields (one list per select) into
+     * rows in one pass. Rows without any value are skipped, or kept as null
+     * if the result must stay aligned with the rows of a parent list.
+     */
+    protected List<FetchRow> transpose(final FetchPlan.Field field,
+                                       final Evaluator eval,
+                                       final boolean aligned)
+        throws EFapsException
+    {
+        final var children = field.getChildren();
+        final var columns = new Iterator<?>[children.size()];
+        int size = 0;
+        for (int slot = 0; slot < children.size(); slot++) {
+            final var childField = children.get(slot);
+            final Object value;
+            if (FetchPlan.Kind.VALUE.equals(childField.getKind())) {
+                value = eval.get(childField.getAlias());
+            } else {
+                value = transpose(childField, eval, true);
             }
-            LOG.debug(" valueList result: {}", valueList);
-            final var valIter = valueList.iterator();
-            while (valIter.hasNext()) {
-                final var map = valIter.next();
-                if (map.values().stream().noneMatch(d -> d != null)) {
-                    valIter.remove();
-                }
+            if (value instanceof final List<?> column) {
+                columns[slot] = column.iterator();
+                size = Math.max(size, column.size());
+            } else if (value != null) {
+                columns[slot] = List.of(value).iterator();
+                size = Math.max(size, 1);
             }
-            ret = valueList;
-        } else {
-            final var map = new HashMap<String, Object>();
-            for (final var childField : environment.getSelectionSet().getFields(selectedField.getName() + "/*")) {
-                if (childField.getType() instanceof GraphQLObjectType) {
-                    map.put(childField.getName(), getChildValue(environment, childField, eval));
-                } else {
-                    map.put(childField.getName(),
-                                    eval.get(childField.getFullyQualifiedName()));
+        }
+        final var ret = new ArrayList<FetchRow>(size);
+        for (int idx = 0; idx < size; idx++) {
+            FetchRow row = null;
+            for (int slot = 0; slot < columns.length; slot++) {
+                if (columns[slot] != null && columns[slot].hasNext()) {
+                    final var value = columns[slot].next();
+                    if (value != null) {
+                        if (row == null) {
+                            row = field.newRow();
+                        }
+                        row.set(slot, value);
+                    }
                 }
             }
-            ret = map;
+            if (row != null || aligned) {
+                ret.add(row);
+            }
         }
         return ret;
     }
 
-    protected void addChildSelect(final DataFetchingEnvironment environment,
-                                  final SelectedField selectedField,
-                                  final Print print,
-                                  final ObjectDef parentObjectDef,
-                                  final String baseSelect)
+    protected FetchPlan.Field addChildSelect(final DataFetchingEnvironment environment,
+                                             final SelectedField selectedField,
+                                             final FetchPlan plan,
+                                             final ObjectDef parentObjectDef,
+                                             final String baseSelect)
     {
         final FieldDef fieldDef = parentObjectDef.getFields().get(selectedField.getName());
         var select = baseSelect;
@@ -329,30 +461,36 @@ public abstract class BaseDataFetcher_Base
             select = select + fieldDef.getSelect();
         }
         String typeName;
+        FetchPlan.Kind kind;
         if (selectedField.getType() instanceof GraphQLList) {
             typeName = ((GraphQLObjectType) ((GraphQLList) selectedField.getType()).getWrappedType()).getName();
+            kind = FetchPlan.Kind.LIST;
         } else {
             typeName = ((GraphQLObjectType) selectedField.getType()).getName();
+            kind = FetchPlan.Kind.OBJECT;
         }
-
+        final var children = new ArrayList<FetchPlan.Field>();
         final Optional<ObjectDef> currentObjOpt = environment.getGraphQlContext().getOrEmpty(typeName);
         if (currentObjOpt.isPresent()) {
             final var currentObj = currentObjOpt.get();
-            for (final var childField : environment.getSelectionSet().getFields(selectedField.getName() + "/*")) {
-                if (childField.getType() instanceof GraphQLObjectType) {
-                    addChildSelect(environment, selectedField, print, currentObj, select);
-                } else {
-                    final FieldDef chieldFieldDef = currentObj.getFields().get(childField.getName());
-                    if (StringUtils.isNotBlank(chieldFieldDef.getSelect())) {
+            for (final var childField : selectedField.getSelectionSet().getImmediateFields()) {
+                final FieldDef chieldFieldDef = currentObj.getFields().get(childField.getName());
+                if (chieldFieldDef != null) {
+                    if (childField.getType() instanceof GraphQLObjectType) {
+                        children.add(addChildSelect(environment, childField, plan, currentObj, select));
+                    } else if (StringUtils.isNotBlank(chieldFieldDef.getSelect())) {
                         var sel = select;
                         if (StringUtils.isNotBlank(sel)) {
                             sel = sel + ".";
                         }
-                        print.select(sel + chieldFieldDef.getSelect()).as(childField.getFullyQualifiedName());
+                        plan.addSelect(childField.getFullyQualifiedName(), sel + chieldFieldDef.getSelect());
+                        children.add(new FetchPlan.Field(childField.getName(), childField.getFullyQualifiedName(),
+                                        FetchPlan.Kind.VALUE, null));
                     }
                 }
             }
         }
+        return new FetchPlan.Field(selectedField.getName(), selectedField.getFullyQualifiedName(), kind, children);
     }
 
     protected Map<String, Object> getLocalContext(final DataFetchingEnvironment _environment)
@@ -366,28 +504,162 @@ public abstract class BaseDataFetcher_Base
         return ret;
     }
 
-    protected String convertArgument(final FieldType fieldType,
-                                     final Object value)
-        throws EFapsException
+    /**
+     * Evaluates the order requested by the orderBy argument or the
+     * DefaultOrderBy property. The argument takes a field name or a list of
+     * field names of the returned type, a leading "-" sorts descending.
+     *
+     * @return mapping of select to descending flag, empty for no order
+     */
+    protected Map<String, Boolean> evalOrderBy(final DataFetchingEnvironment environment,
+                                               final FetchPlan plan,
+                                               final DataFetcherResult.Builder<Object> resultBldr)
     {
-        String ret;
-        switch (fieldType) {
-            case DATETIME:
-                if (value instanceof final OffsetDateTime offsetDateTime) {
-                    ret = offsetDateTime.toString();
-                } else {
-                    ret = Objects.toString(value);
-                }
-                break;
-            default:
-                ret = Objects.toString(value);
+        final var ret = new LinkedHashMap<String, Boolean>();
+        final Object orderBy = environment.getArgumentOrDefault(plan.getOrderByArgument(),
+                        plan.getDefaultOrderBy());
+        final var keys = new ArrayList<String>();
+        if (orderBy instanceof final Collection<?> collection) {
+            collection.forEach(key -> keys.add(String.valueOf(key)));
+        } else if (orderBy != null) {
+            keys.addAll(Arrays.asList(StringUtils.split(String.valueOf(orderBy), ',')));
+        }
+        for (final var key : keys) {
+            final var trimmed = key.trim();
+            final boolean desc = trimmed.startsWith("-");
+            final var fieldName = desc ? trimmed.substring(1) : trimmed;
+            final var fieldDef = plan.getObjectDef().getFields().get(fieldName);
+            if (fieldDef == null || StringUtils.isBlank(fieldDef.getSelect())) {
+                resultBldr.error(GraphqlErrorBuilder.newError(environment)
+                                .message("Can not order by: %s", fieldName)
+                                .build());
+            } else {
+                ret.put(fieldDef.getSelect(), desc);
+            }
         }
         return ret;
     }
 
-    protected void paginate()
+    /**
+     * Pushes the order down into the query.
+     */
+    protected void order(final Print print,
+                         final Map<String, Boolean> orderBy)
     {
+        int idx = 0;
+        for (final var entry : orderBy.entrySet()) {
+            final var alias = ORDER_KEY + idx++;
+            print.select(entry.getKey()).as(alias);
+            print.orderBy(alias, entry.getValue());
+        }
+    }
 
+    /**
+     * Evaluates the page requested by the first and after arguments. The size
+     * of the page is bound by the property MaxPageSize.
+     *
+     * @return the page or null if the field is not paginated
+     */
+    protected Page evalPage(final DataFetchingEnvironment environment,
+                            final FetchPlan plan,
+                            final DataFetcherResult.Builder<Object> resultBldr)
+    {
+        Page ret = null;
+        final Integer first = environment.getArgument(plan.getFirstArgument());
+        final String after = environment.getArgument(plan.getAfterArgument());
+        if (first != null || after != null || plan.getPageSize() != null || plan.getMaxPageSize() != null) {
+            var size = first == null ? plan.getPageSize() : first;
+            if (plan.getMaxPageSize() != null && (size == null || size > plan.getMaxPageSize())) {
+                size = plan.getMaxPageSize();
+            }
+            ret = new Page(size, decodeCursor(after));
+            if (after != null && ret.getAfter() == null) {
+                resultBldr.error(GraphqlErrorBuilder.newError(environment)
+                                .message("Invalid cursor: %s", after)
+                                .build());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return an error message if the requested page can not be served,
+     *         else null
+     */
+    protected String validatePage(final DataFetchingEnvironment environment,
+                                  final FetchPlan plan,
+                                  final Page page,
+                                  final Map<String, Boolean> orderBy)
+    {
+        String ret = null;
+        if (plan.getLinkFrom() != null && plan.isLinkFromBatch()
+                        && (environment.getArgument(plan.getFirstArgument()) != null
+                                        || environment.getArgument(plan.getAfterArgument()) != null)) {
+            ret = "The first and after arguments are not supported for batched LinkFrom fields";
+        } else if (page != null && page.getFirst() != null && page.getFirst() < 0) {
+            ret = "The first argument must not be negative";
+        } else if (page != null && page.getAfter() != null && !orderBy.isEmpty()) {
+            ret = "The after cursor can not be combined with an explicit order";
+        }
+        return ret;
+    }
+
+    /**
+     * Pushes the page down into the query. The rows are sorted by their ID,
+     * which is also the key of the cursor, after an explicit order. One row
+     * more than requested is read to know if there is a next page.
+     */
+    protected void paginate(final Print print,
+                            final Page page)
+    {
+        if (page != null) {
+            print.select("attribute[ID]").as(PAGE_KEY);
+            print.orderBy(PAGE_KEY);
+            if (page.getFirst() != null) {
+                print.limit(page.getFirst() + 1);
+            }
+        }
+    }
+
+    protected Map<String, Object> getConnection(final List<Map<String, Object>> values,
+                                                final Page page)
+    {
+        final var edges = new ArrayList<Map<String, Object>>();
+        for (final var value : values) {
+            final var edge = new HashMap<String, Object>();
+            edge.put("cursor", encodeCursor((Instance) value.get("currentInstance")));
+            edge.put("node", value);
+            edges.add(edge);
+        }
+        final var pageInfo = new HashMap<String, Object>();
+        pageInfo.put("hasNextPage", page != null && page.isHasNextPage());
+        pageInfo.put("hasPreviousPage", page != null && page.getAfter() != null);
+        pageInfo.put("startCursor", edges.isEmpty() ? null : edges.get(0).get("cursor"));
+        pageInfo.put("endCursor", edges.isEmpty() ? null : edges.get(edges.size() - 1).get("cursor"));
+        final var ret = new HashMap<String, Object>();
+        ret.put("edges", edges);
+        ret.put("pageInfo", pageInfo);
+        return ret;
+    }
+
+    protected String encodeCursor(final Instance instance)
+    {
+        return instance == null ? null
+                        : Base64.getUrlEncoder().encodeToString(String.valueOf(instance.getId())
+                                        .getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected Long decodeCursor(final String cursor)
+    {
+        Long ret = null;
+        if (StringUtils.isNotBlank(cursor)) {
+            try {
+                ret = Long.valueOf(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+            } catch (final IllegalArgumentException e) {
+                LOG.warn("Invalid cursor: {}", cursor);
+            }
+        }
+        return ret;
     }
 
     protected List<Map<String, Object>> getValueMaps(final Map<String, String> keyMapping,
@@ -415,4 +687,46 @@ public abstract class BaseDataFetcher_Base
         return map;
     }
 
+    public static class Page
+    {
+
+        private final Integer first;
+
+        private final Long after;
+
+        private boolean hasNextPage;
+
+        public Page(final Integer first,
+                    final Long after)
+        {
+            this.first = first;
+            this.after = after;
+        }
+
+        public Integer getFirst()
+        {
+            return first;
+        }
+
+        public Long getAfter()
+        {
+            return after;
+        }
+
+        public boolean isHasNextPage()
+        {
+            return hasNextPage;
+        }
+
+        /**
+         * Removes the additional row read to detect the next page.
+         */
+        public void evalValues(final List<Map<String, Object>> values)
+        {
+            if (first != null && values.size() > first) {
+                hasNextPage = true;
+                values.subList(first, values.size()).clear();
+            }
+        }
+    }
 }
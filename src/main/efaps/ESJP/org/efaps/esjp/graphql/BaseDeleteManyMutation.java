@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.db.Instance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import graphql.execution.DataFetcherResult;
+import graphql.schema.DataFetchingEnvironment;
+
+/**
+ * Deletes all instances selected by the properties Type01..,
+ * StaticWhere01.. and the arguments with a where statement, and returns the
+ * number of deleted instances. The instances are deleted with one statement
+ * per ChunkSize instances.
+ */
+@EFapsUUID("71243efb-6b82-467e-98a2-b36dc462e4be")
+@EFapsApplication("eFaps-GraphQL")
+public class BaseDeleteManyMutation
+    extends AbstractMutation
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(BaseDeleteManyMutation.class);
+
+    @Override
+    protected Object fetch(final DataFetchingEnvironment environment)
+        throws Exception
+    {
+        LOG.info("Running delete many mutation: {}", this);
+        final var resultBldr = DataFetcherResult.newResult();
+        final var props = getProperties(environment);
+        final var instances = evalInstances(environment, props);
+        final var chunkSize = getChunkSize(props);
+        for (int i = 0; i < instances.size(); i += chunkSize) {
+            final var chunk = instances.subList(i, Math.min(i + chunkSize, instances.size()));
+            Statements.delete(chunk);
+        }
+        instances.stream().map(Instance::getType).distinct().forEach(ResponseCache::evict);
+        LOG.debug("Deleted {} instances", instances.size());
+        return resultBldr.data(instances.size()).build();
+    }
+}
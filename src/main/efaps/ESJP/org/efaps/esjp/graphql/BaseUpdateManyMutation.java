@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.efaps.admin.datamodel.Type;
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.db.Instance;
+import org.efaps.eql.EQL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.DataFetcherResult;
+import graphql.schema.DataFetchingEnvironment;
+
+/**
+ * Sets the values of the input on all instances selected by the properties
+ * Type01.., StaticWhere01.. and the arguments with a where statement, and
+ * returns the number of updated instances. The instances are updated with
+ * one statement per ChunkSize instances of the same type. Classifications
+ * are written per chunk with one query for the existing classification
+ * objects and one update statement for them. Attribute sets are not
+ * supported and are rejected with an error.
+ */
+@EFapsUUID("0be66fea-b193-4d1c-90c9-7c92f8e2664d")
+@EFapsApplication("eFaps-GraphQL")
+public class BaseUpdateManyMutation
+    extends BaseUpdateMutation
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(BaseUpdateManyMutation.class);
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Object fetch(final DataFetchingEnvironment environment)
+        throws Exception
+    {
+        LOG.info("Running update many mutation: {}", this);
+        final var resultBldr = DataFetcherResult.newResult();
+        final var props = getProperties(environment);
+        final var allValues = evalArgumentValues(environment, props);
+        final var values = new HashMap<String, Object>();
+        final var classValues = new HashMap<String, Object>();
+        for (final var entry : allValues.entrySet()) {
+            switch (WritePlan.action(entry.getKey()).type()) {
+                case ATTRIBUTE, LINKTO -> values.put(entry.getKey(), entry.getValue());
+                case CLASS -> classValues.put(entry.getKey(), entry.getValue());
+                case ATTRIBUTESET -> resultBldr.error(GraphqlErrorBuilder.newError(environment)
+                                .message("Attribute sets can not be updated on many instances: %s",
+                                                entry.getKey())
+                                .build());
+                default -> LOG.debug("Ignoring {}", entry.getKey());
+            }
+        }
+        int count = 0;
+        if (allValues.size() > values.size() + classValues.size()) {
+            LOG.warn("Update many mutation rejected for input with attribute sets");
+        } else if (!values.isEmpty() || !classValues.isEmpty()) {
+            final var instances = evalInstances(environment, props);
+            final Map<Type, List<Instance>> typed = new LinkedHashMap<>();
+            for (final var instance : instances) {
+                typed.computeIfAbsent(instance.getType(), type -> new ArrayList<>()).add(instance);
+            }
+            final var resolver = new LinktoResolver(props);
+            final var chunkSize = getChunkSize(props);
+            for (final var typeEntry : typed.entrySet()) {
+                final var type = typeEntry.getKey();
+                final var typeInstances = typeEntry.getValue();
+                resolver.prefetch(type, allValues);
+                for (int i = 0; i < typeInstances.size(); i += chunkSize) {
+                    final var chunk = typeInstances.subList(i, Math.min(i + chunkSize, typeInstances.size()));
+                    if (!values.isEmpty()) {
+                        final var update = EQL.builder().update(chunk.toArray(new Instance[chunk.size()]));
+                        setValues(type, update, values, resolver);
+                        Statements.execute(update);
+                    }
+                    for (final var entry : classValues.entrySet()) {
+                        executeClassification(chunk,
+                                        WritePlan.classification(WritePlan.action(entry.getKey()).name()),
+                                        (Map<String, Object>) entry.getValue(), resolver);
+                    }
+                }
+                evict(type, allValues, resolver);
+            }
+            count = instances.size();
+        }
+        LOG.debug("Updated {} instances", count);
+        return resultBldr.data(count).build();
+    }
+}
@@ -15,9 +15,16 @@
  */
 package org.efaps.esjp.graphql;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import org.efaps.admin.datamodel.AttributeSet;
 import org.efaps.admin.datamodel.Classification;
@@ -27,9 +34,7 @@ import org.efaps.admin.program.esjp.EFapsUUID;
 import org.efaps.db.Instance;
 import org.efaps.eql.EQL;
 import org.efaps.eql.builder.Converter;
-import org.efaps.eql.builder.Insert;
-import org.efaps.eql.builder.Update;
-import org.efaps.eql2.bldr.AbstractUpdateEQLBuilder;
+import org.efaps.esjp.common.properties.PropertiesUtil;
 import org.efaps.esjp.db.InstanceUtils;
 import org.efaps.util.EFapsException;
 import org.efaps.util.OIDUtil;
@@ -49,8 +54,10 @@ public class BaseUpdateMutation
 
     private static final Logger LOG = LoggerFactory.getLogger(BaseUpdateMutation.class);
 
+    private static final String PARENT_KEY = "__parent";
+
     @Override
-    public Object get(final DataFetchingEnvironment environment)
+    protected Object fetch(final DataFetchingEnvironment environment)
         throws Exception
     {
         final var resultBldr = DataFetcherResult.newResult();
@@ -58,7 +65,9 @@ public class BaseUpdateMutation
         final var instance = evalInstance(environment, props);
         if (InstanceUtils.isValid(instance)) {
             final var values = evalArgumentValues(environment, props);
-            executeStmt(environment, resultBldr, instance, values);
+            final var resolver = new LinktoResolver(props);
+            resolver.prefetch(instance.getType(), values);
+            executeStmt(environment, resultBldr, instance, values, resolver);
         } else {
             resultBldr.error(GraphqlErrorBuilder.newError(environment)
                             .message("No valid instance could be evaluated")
@@ -86,111 +95,356 @@ public class BaseUpdateMutation
     protected Instance executeStmt(final DataFetchingEnvironment environment,
                                    final Builder<Object> resultBldr,
                                    final Instance instance,
-                                   final Map<String, Object> values)
+                                   final Map<String, Object> values,
+                                   final LinktoResolver resolver)
         throws EFapsException
     {
         LOG.debug("Execute base stmt");
         final var eqlBldr = EQL.builder().update(instance);
+        final var children = new ArrayList<Map.Entry<String, Object>>();
         for (final var entry : values.entrySet()) {
-            final var field = entry.getKey().trim();
-            if (field.startsWith("attribute[")) {
-                final String attrName = field.substring(10, field.length() - 1);
-                eqlBldr.set(attrName, Converter.convert(entry.getValue()));
+            final var action = WritePlan.action(entry.getKey());
+            switch (action.type()) {
+                case ATTRIBUTE -> eqlBldr.set(action.name(), Converter.convert(entry.getValue()));
+                case LINKTO -> evalLinkto(instance.getType(), eqlBldr, entry.getValue(), action.select(),
+                                resolver);
+                case ATTRIBUTESET, CLASS -> children.add(entry);
+                default -> LOG.debug("Ignoring {}", entry.getKey());
             }
-            if (field.startsWith("linkto[")) {
-                evalLinkto(instance.getType(), eqlBldr, entry.getValue(), field);
+        }
+        Statements.execute(eqlBldr);
+        evict(instance.getType(), values, resolver);
+        final var setKeys = evalAttributeSetKeys(getProperties(environment));
+        for (final var entry : children) {
+            final var action = WritePlan.action(entry.getKey());
+            if (action.type() == WritePlan.ActionType.ATTRIBUTESET) {
+                executeAttributeSet(instance, action, (List<Map<String, Object>>) entry.getValue(),
+                                setKeys.get(action.name()), resolver);
+            } else {
+                executeStmt(instance, action.select(), (Map<String, Object>) entry.getValue(), resolver);
             }
         }
-        eqlBldr.execute();
-        for (final var entry : values.entrySet()) {
-            final var field = entry.getKey().trim();
-            if (field.startsWith("attributeset[")) {
-                for (final var valuesEntry : (List<Map<String, Object>>) entry.getValue()) {
-                    executeStmt(instance, field, valuesEntry);
+        resultBldr.data(instance.getOid());
+        return instance;
+    }
+
+    /**
+     * @return mapping of attribute set name to the select of the key given
+     *         by the properties AttributeSet01 and AttributeSetKey01
+     */
+    protected Map<String, String> evalAttributeSetKeys(final Properties props)
+    {
+        final var ret = new HashMap<String, String>();
+        final var attrSets = PropertiesUtil.analyseProperty(props, "AttributeSet", 0);
+        final var keys = PropertiesUtil.analyseProperty(props, "AttributeSetKey", 0);
+        for (final var entry : attrSets.entrySet()) {
+            if (keys.containsKey(entry.getKey())) {
+                ret.put(entry.getValue(), keys.get(entry.getKey()));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the entries of an attribute set. Without key the existing rows
+     * are replaced. With a key, e.g. "attribute[Position]", the entries are
+     * matched to the existing rows: changed rows are updated, new ones
+     * inserted and the missing ones deleted. Changed rows with the same new
+     * values are updated with one statement. If the existing rows do not
+     * have unique keys, they are replaced. Entries with the same key are
+     * rejected.
+     */
+    protected void executeAttributeSet(final Instance parentInstance,
+                                       final WritePlan.Action action,
+                                       final List<Map<String, Object>> entries,
+                                       final String key,
+                                       final LinktoResolver resolver)
+        throws EFapsException
+    {
+        final var attrSet = WritePlan.attributeSet(parentInstance.getType(), action.name());
+        var keyAction = key == null ? null : WritePlan.action(key);
+        if (keyAction != null && keyAction.type() != WritePlan.ActionType.ATTRIBUTE) {
+            LOG.warn("Key {} for {} is not an attribute, rows are replaced", key, action.select());
+            keyAction = null;
+        }
+        if (keyAction != null) {
+            final var entryKeys = new HashSet<String>();
+            for (final var entry : entries) {
+                final var entryValue = entry.get(keyAction.select());
+                final var entryKey = getRowKey(entryValue, entryValue instanceof Number);
+                if (!entryKeys.add(entryKey)) {
+                    throw new EFapsException(BaseUpdateMutation.class, "executeAttributeSet.DuplicateKey",
+                                    action.select(), entryKey);
                 }
             }
-            if (field.startsWith("class[")) {
-                executeStmt(instance, field, (Map<String, Object>) entry.getValue());
+        }
+        final var attrNames = new HashSet<String>();
+        if (keyAction != null) {
+            attrNames.add(keyAction.name());
+            for (final var entry : entries) {
+                for (final var select : entry.keySet()) {
+                    final var valueAction = WritePlan.action(select);
+                    if (valueAction.type() == WritePlan.ActionType.ATTRIBUTE) {
+                        attrNames.add(valueAction.name());
+                    } else if (valueAction.type() == WritePlan.ActionType.LINKTO) {
+                        attrNames.add(resolver.getLinkAttributeName(valueAction.select()));
+                    }
+                }
             }
         }
-        resultBldr.data(instance.getOid());
-        return instance;
+        final var print = EQL.builder().print().query(attrSet.getName())
+                        .where()
+                        .attr(action.name()).eq(parentInstance)
+                        .select();
+        print.oid();
+        for (final var attrName : attrNames) {
+            print.attribute(attrName).as(attrName);
+        }
+        final var eval = Statements.evaluate(print);
+        final Map<String, Map<String, Object>> existing = new LinkedHashMap<>();
+        final Map<String, Instance> instances = new LinkedHashMap<>();
+        final var rows = new ArrayList<Map<String, Object>>();
+        final var rowInstances = new ArrayList<Instance>();
+        boolean numeric = false;
+        while (eval.next()) {
+            final var rowValues = new HashMap<String, Object>();
+            for (final var attrName : attrNames) {
+                rowValues.put(attrName, eval.get(attrName));
+            }
+            rows.add(rowValues);
+            rowInstances.add(eval.inst());
+            numeric = numeric || keyAction != null && rowValues.get(keyAction.name()) instanceof Number;
+        }
+        boolean replace = keyAction == null;
+        for (int i = 0; i < rows.size() && !replace; i++) {
+            final var rowKey = getRowKey(rows.get(i).get(keyAction.name()), numeric);
+            if (existing.containsKey(rowKey)) {
+                LOG.warn("Duplicate key {} in {}, rows are replaced", rowKey, action.select());
+                replace = true;
+            }
+            existing.put(rowKey, rows.get(i));
+            instances.put(rowKey, rowInstances.get(i));
+        }
+        final var inserts = new ArrayList<Map<String, Object>>();
+        if (replace) {
+            existing.clear();
+            instances.clear();
+            for (int i = 0; i < rowInstances.size(); i++) {
+                existing.put(rowInstances.get(i).getOid(), rows.get(i));
+                instances.put(rowInstances.get(i).getOid(), rowInstances.get(i));
+            }
+            inserts.addAll(entries);
+        } else {
+            // the rows to update by their new values, the key is unchanged
+            final Map<Map<String, Object>, List<Instance>> updates = new LinkedHashMap<>();
+            for (final var entry : entries) {
+                final var rowKey = getRowKey(entry.get(keyAction.select()), numeric);
+                final var rowValues = existing.remove(rowKey);
+                if (rowValues == null) {
+                    inserts.add(entry);
+                } else if (isChanged(attrSet, rowValues, entry, resolver)) {
+                    final var changed = new HashMap<>(entry);
+                    changed.remove(keyAction.select());
+                    updates.computeIfAbsent(changed, k -> new ArrayList<>()).add(instances.get(rowKey));
+                }
+            }
+            for (final var update : updates.entrySet()) {
+                final var updateInsts = update.getValue();
+                final var stmt = EQL.builder().update(updateInsts.toArray(new Instance[updateInsts.size()]));
+                setValues(attrSet, stmt, update.getKey(), resolver);
+                Statements.execute(stmt);
+            }
+        }
+        LOG.debug("AttributeSet {}: {} inserts, {} deletes", action.name(), inserts.size(), existing.size());
+        if (!existing.isEmpty()) {
+            final var deletes = new ArrayList<Instance>();
+            for (final var rowKey : existing.keySet()) {
+                deletes.add(instances.get(rowKey));
+            }
+            Statements.delete(deletes);
+        }
+        for (final var entry : inserts) {
+            insertAttributeSetEntry(parentInstance, attrSet, action.name(), entry, resolver);
+        }
     }
 
-    protected Instance executeStmt(final Instance parentInstance,
-                                   final String select,
-                                   final Map<String, Object> values)
+    /**
+     * @param numeric the keys of the existing rows are numbers, compared by
+     *            their decimal value as in {@link #isEqual(Object, Object)}
+     */
+    protected String getRowKey(final Object value,
+                               final boolean numeric)
+    {
+        String ret = String.valueOf(value);
+        if (numeric && value != null) {
+            try {
+                ret = new BigDecimal(ret).stripTrailingZeros().toPlainString();
+            } catch (final NumberFormatException e) {
+                LOG.debug("Key {} is not a number", value);
+            }
+        }
+        return ret;
+    }
+
+    protected boolean isChanged(final Type type,
+                                final Map<String, Object> rowValues,
+                                final Map<String, Object> values,
+                                final LinktoResolver resolver)
         throws EFapsException
     {
+        boolean ret = false;
+        for (final var entry : values.entrySet()) {
+            final var action = WritePlan.action(entry.getKey());
+            if (action.type() == WritePlan.ActionType.ATTRIBUTE) {
+                ret = !isEqual(rowValues.get(action.name()), entry.getValue());
+            } else if (action.type() == WritePlan.ActionType.LINKTO) {
+                final var inst = resolver.resolve(type, action.select(), entry.getValue());
+                ret = !isEqual(rowValues.get(resolver.getLinkAttributeName(action.select())),
+                                inst == null ? null : inst.getId());
+            }
+            if (ret) {
+                break;
+            }
+        }
+        return ret;
+    }
+
+    protected boolean isEqual(final Object current,
+                              final Object value)
+    {
+        final boolean ret;
+        if (current == null || value == null) {
+            ret = current == value;
+        } else if (current instanceof Number && value instanceof Number) {
+            ret = new BigDecimal(current.toString()).compareTo(new BigDecimal(value.toString())) == 0;
+        } else {
+            ret = String.valueOf(current).equals(String.valueOf(value));
+        }
+        return ret;
+    }
 
-        Type type = null;
-        AbstractUpdateEQLBuilder<?> eqlBldr = null;
-        if (select.startsWith("attributeset[")) {
-            final var attrName = select.substring(13, select.length() - 1);
-            final var attrSet = AttributeSet.find(parentInstance.getType().getName(), attrName);
-            final var deleteEval = EQL.builder().print().query(attrSet.getName())
+    /**
+     * @return mapping of the id of the parent to its classification instance,
+     *         read with one query for all parents
+     */
+    protected Map<Long, Instance> evalClassInstances(final Classification classification,
+                                                     final Collection<Instance> parentInstances)
+        throws EFapsException
+    {
+        final var ret = new HashMap<Long, Instance>();
+        if (!parentInstances.isEmpty()) {
+            final var ids = new ArrayList<String>();
+            for (final var parentInstance : parentInstances) {
+                ids.add(String.valueOf(parentInstance.getId()));
+            }
+            final var print = EQL.builder().print().query(classification.getName())
                             .where()
-                            .attr(attrName).eq(parentInstance)
-                            .select()
-                            .oid()
-                            .evaluate();
-            while (deleteEval.next()) {
-                EQL.builder().delete(deleteEval.inst()).stmt().execute();
-            }
-            eqlBldr = EQL.builder().insert(attrSet)
-                            .set(attrName, Converter.convert(parentInstance));
-            type = attrSet;
-        } else if (select.startsWith("class[")) {
-            final var classTypeName = select.substring(6, select.length() - 1);
-            final var classification = Classification.get(classTypeName);
-            type = classification;
-
-            final var check4Classification = EQL.builder().print()
-                            .query(classification.getClassifyRelationType().getName())
+                            .attr(classification.getLinkAttributeName()).in(ids.toArray(new String[ids.size()]))
+                            .select();
+            print.attribute(classification.getLinkAttributeName()).as(PARENT_KEY);
+            final var eval = Statements.evaluate(print);
+            while (eval.next()) {
+                final Object parentId = eval.get(PARENT_KEY);
+                if (parentId instanceof final Number number) {
+                    ret.put(number.longValue(), eval.inst());
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return ids of the parents that are already related to the
+     *         classification, read with one query for all parents
+     */
+    protected Set<Long> evalClassRelations(final Classification classification,
+                                           final Collection<Instance> parentInstances)
+        throws EFapsException
+    {
+        final var ret = new HashSet<Long>();
+        if (!parentInstances.isEmpty()) {
+            final var ids = new ArrayList<String>();
+            for (final var parentInstance : parentInstances) {
+                ids.add(String.valueOf(parentInstance.getId()));
+            }
+            final var print = EQL.builder().print().query(classification.getClassifyRelationType().getName())
                             .where()
-                            .attr(classification.getRelLinkAttributeName()).eq(parentInstance)
+                            .attr(classification.getRelLinkAttributeName()).in(ids.toArray(new String[ids.size()]))
                             .and()
-                            .attr(classification.getRelTypeAttributeName()).eq(classification.getId())
-                            .select()
-                            .oid()
-                            .evaluate();
-            if (check4Classification.next()) {
-                final var classEval = EQL.builder().print().query(classification.getName())
-                                .where()
-                                .attr(classification.getLinkAttributeName()).eq(parentInstance)
-                                .select()
-                                .oid()
-                                .evaluate();
-                classEval.next();
-                eqlBldr = EQL.builder().update(classEval.inst());
-            } else {
-                EQL.builder().insert(classification.getClassifyRelationType())
-                                .set(classification.getRelLinkAttributeName(), Converter.convert(parentInstance))
-                                .set(classification.getRelTypeAttributeName(),
-                                                Converter.convert(classification.getId()))
-                                .execute();
-                eqlBldr = EQL.builder().insert(classification)
-                                .set(classification.getLinkAttributeName(), Converter.convert(parentInstance));
+                            .attr(classification.getRelTypeAttributeName()).eq(String.valueOf(classification.getId()))
+                            .select();
+            print.attribute(classification.getRelLinkAttributeName()).as(PARENT_KEY);
+            final var eval = Statements.evaluate(print);
+            while (eval.next()) {
+                final Object parentId = eval.get(PARENT_KEY);
+                if (parentId instanceof final Number number) {
+                    ret.add(number.longValue());
+                }
             }
         }
+        return ret;
+    }
 
-        for (final var entry : values.entrySet()) {
-            final var field = entry.getKey().trim();
-            if (field.startsWith("attribute[")) {
-                final String attrName = field.substring(10, field.length() - 1);
-                eqlBldr.set(attrName, Converter.convert(entry.getValue()));
+    /**
+     * Writes the classification of several parents: the existing
+     * classification objects are read with one query and updated with one
+     * statement, only the missing ones are inserted one by one. The relation
+     * to the classification is only inserted for the parents that do not
+     * have it yet.
+     */
+    protected void executeClassification(final List<Instance> parentInstances,
+                                         final Classification classification,
+                                         final Map<String, Object> values,
+                                         final LinktoResolver resolver)
+        throws EFapsException
+    {
+        final var classInsts = evalClassInstances(classification, parentInstances);
+        final var unclassified = new ArrayList<Instance>();
+        for (final var parentInstance : parentInstances) {
+            if (!classInsts.containsKey(parentInstance.getId())) {
+                unclassified.add(parentInstance);
             }
-            if (field.startsWith("linkto[")) {
-                evalLinkto(type, eqlBldr, entry.getValue(), field);
+        }
+        final var related = evalClassRelations(classification, unclassified);
+        final var updates = new ArrayList<Instance>();
+        for (final var parentInstance : parentInstances) {
+            final var classInst = classInsts.get(parentInstance.getId());
+            if (classInst == null) {
+                if (!related.contains(parentInstance.getId())) {
+                    Statements.execute(EQL.builder().insert(classification.getClassifyRelationType())
+                                    .set(classification.getRelLinkAttributeName(), Converter.convert(parentInstance))
+                                    .set(classification.getRelTypeAttributeName(),
+                                                    Converter.convert(classification.getId())));
+                }
+                final var insert = EQL.builder().insert(classification)
+                                .set(classification.getLinkAttributeName(), Converter.convert(parentInstance));
+                setValues(classification, insert, values, resolver);
+                Statements.execute(insert);
+            } else {
+                updates.add(classInst);
             }
         }
-        Instance retInst;
-        if (eqlBldr instanceof Update) {
-            ((Update) eqlBldr).execute();
-            retInst = parentInstance;
-        } else {
-            retInst = ((Insert) eqlBldr).execute();
+        LOG.debug("Classification {}: {} updates, {} inserts", classification.getName(), updates.size(),
+                        parentInstances.size() - updates.size());
+        if (!updates.isEmpty()) {
+            final var update = EQL.builder().update(updates.toArray(new Instance[updates.size()]));
+            setValues(classification, update, values, resolver);
+            Statements.execute(update);
         }
-        return retInst;
     }
+
+    /**
+     * Writes the classification of the select, e.g. "class[Name]".
+     */
+    protected Instance executeStmt(final Instance parentInstance,
+                                   final String select,
+                                   final Map<String, Object> values,
+                                   final LinktoResolver resolver)
+        throws EFapsException
+    {
+        executeClassification(List.of(parentInstance), WritePlan.classification(WritePlan.action(select).name()),
+                        values, resolver);
+        return parentInstance;
+    }
+
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.efaps.admin.datamodel.Type;
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.db.Context;
+import org.efaps.db.Instance;
+import org.efaps.eql.EQL;
+import org.efaps.esjp.db.InstanceUtils;
+import org.efaps.util.EFapsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.DataFetcherResult;
+import graphql.schema.DataFetchingEnvironment;
+import jakarta.transaction.RollbackException;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.SystemException;
+import jakarta.transaction.Transaction;
+
+/**
+ * Updates the object of the property Type that has the value of the input
+ * for the attribute given by the property KeyAttribute, or creates it if
+ * there is none. Returns the OID in both cases. The values are validated
+ * before either. The key is locked on this node until the transaction is
+ * completed, so that concurrent upserts of the same key do not both insert.
+ * Across nodes a unique index on the key attribute is required; the insert
+ * that violates it fails and its transaction is rolled back.
+ */
+@EFapsUUID("56cc3987-251f-4118-8fc4-58c0ec8ea661")
+@EFapsApplication("eFaps-GraphQL")
+public class BaseUpsertMutation
+    extends BaseUpdateMutation
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(BaseUpsertMutation.class);
+
+    /** Striped locks for the keys, held until the transaction is completed. */
+    private static final Semaphore[] LOCKS = new Semaphore[64];
+
+    /** Stripes held by the transactions that are not completed yet. */
+    private static final Map<Transaction, Set<Integer>> HELD = new ConcurrentHashMap<>();
+
+    /** Seconds to wait for the lock of a key. */
+    private static final long LOCK_TIMEOUT = 30;
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new Semaphore(1);
+        }
+    }
+
+    private final BaseCreateMutation createMutation = new BaseCreateMutation();
+
+    @Override
+    protected Object fetch(final DataFetchingEnvironment environment)
+        throws Exception
+    {
+        LOG.info("Running upsert mutation: {}", this);
+        final var resultBldr = DataFetcherResult.newResult();
+        final var props = getProperties(environment);
+        final var type = createMutation.evalCreateType(props);
+        final var keyAttribute = props.getProperty("KeyAttribute");
+        final var values = evalArgumentValues(environment, props);
+        final var keyValue = values.get("attribute[" + keyAttribute + "]");
+        if (type == null || keyAttribute == null || keyValue == null) {
+            resultBldr.error(GraphqlErrorBuilder.newError(environment)
+                            .message("Type, KeyAttribute and a value for the key are required")
+                            .build());
+        } else if (!lock(type, keyValue)) {
+            resultBldr.error(GraphqlErrorBuilder.newError(environment)
+                            .message("The key %s is locked by another transaction", keyValue)
+                            .build());
+        } else if (validateValues(environment, values, resultBldr)) {
+            final var resolver = new LinktoResolver(props);
+            resolver.prefetch(type, values);
+            final var instance = evalInstance(type, keyAttribute, keyValue);
+            if (InstanceUtils.isValid(instance)) {
+                LOG.debug("Updating {}", instance);
+                executeStmt(environment, resultBldr, instance, values, resolver);
+            } else {
+                LOG.debug("Creating {}", type);
+                final var inst = createMutation.executeStmt(type, values, resolver);
+                if (InstanceUtils.isValid(inst)) {
+                    resultBldr.data(inst.getOid());
+                }
+            }
+        }
+        return resultBldr.build();
+    }
+
+    protected Instance evalInstance(final Type type,
+                                    final String keyAttribute,
+                                    final Object keyValue)
+        throws EFapsException
+    {
+        Instance ret = null;
+        final var eval = Statements.evaluate(EQL.builder().print()
+                        .query(type.getName())
+                        .where()
+                        .attribute(keyAttribute).eq(String.valueOf(keyValue))
+                        .select().instance());
+        if (eval.next()) {
+            ret = eval.inst();
+            if (eval.next()) {
+                LOG.warn("More than one {} found for {}={}, updating the first", type, keyAttribute, keyValue);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Locks the key for the current transaction, a transaction that holds
+     * it already passes.
+     *
+     * @return false if the lock could not be acquired in time
+     */
+    protected boolean lock(final Type type,
+                           final Object keyValue)
+        throws EFapsException
+    {
+        boolean ret = false;
+        final var stripe = Math.floorMod((type.getName() + "|" + keyValue).hashCode(), LOCKS.length);
+        try {
+            final var transaction = Context.getTransactionManager().getTransaction();
+            if (transaction == null) {
+                LOG.warn("No transaction, the key {} is not locked", keyValue);
+                ret = true;
+            } else {
+                final var held = HELD.get(transaction);
+                if (held != null && held.contains(stripe)) {
+                    ret = true;
+                } else if (LOCKS[stripe].tryAcquire(LOCK_TIMEOUT, TimeUnit.SECONDS)) {
+                    if (held == null) {
+                        HELD.put(transaction, ConcurrentHashMap.newKeySet());
+                        transaction.registerSynchronization(new AfterCompletion(transaction));
+                    }
+                    HELD.get(transaction).add(stripe);
+                    ret = true;
+                }
+            }
+        } catch (final SystemException | RollbackException e) {
+            LOG.error("Could not register the release of the lock", e);
+            throw new EFapsException(BaseUpsertMutation.class, "lock", e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EFapsException(BaseUpsertMutation.class, "lock", e);
+        }
+        return ret;
+    }
+
+    /**
+     * Hook to validate the values before an object is created or updated.
+     */
+    protected boolean validateValues(final DataFetchingEnvironment environment,
+                                     final Map<String, Object> values,
+                                     final DataFetcherResult.Builder<Object> resultBldr)
+        throws EFapsException
+    {
+        return createMutation.validateValues(environment, values, resultBldr);
+    }
+
+    /**
+     * Releases the locks of a transaction once it is completed.
+     */
+    private static final class AfterCompletion
+        implements Synchronization
+    {
+
+        private final Transaction transaction;
+
+        private AfterCompletion(final Transaction transaction)
+        {
+            this.transaction = transaction;
+        }
+
+        @Override
+        public void beforeCompletion()
+        {
+            // nothing to do before the commit
+        }
+
+        @Override
+        public void afterCompletion(final int status)
+        {
+            final var held = HELD.remove(transaction);
+            if (held != null) {
+                held.forEach(stripe -> LOCKS[stripe].release());
+            }
+        }
+    }
+}
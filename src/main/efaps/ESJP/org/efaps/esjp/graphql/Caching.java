@@ -15,11 +15,17 @@
  */
 package org.efaps.esjp.graphql;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.efaps.admin.event.Parameter;
+import org.efaps.admin.event.Parameter.ParameterValues;
 import org.efaps.admin.event.Return;
 import org.efaps.admin.program.esjp.EFapsApplication;
 import org.efaps.admin.program.esjp.EFapsListener;
 import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.db.Context;
 import org.efaps.esjp.admin.common.IReloadCacheListener;
 import org.efaps.graphql.providers.EntryPointProvider;
 import org.efaps.graphql.providers.MutationProvider;
@@ -28,6 +34,13 @@ import org.efaps.util.EFapsException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import graphql.GraphQLContext;
+import jakarta.transaction.RollbackException;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.SystemException;
+import jakarta.transaction.Transaction;
+
 @EFapsUUID("ff8e1700-acef-4504-8b0b-338d5afb8417")
 @EFapsApplication("eFaps-GraphQL")
 @EFapsListener
@@ -36,6 +49,21 @@ public class Caching
 {
     private static final Logger LOG = LoggerFactory.getLogger(Caching.class);
 
+    /** Incremented on each invalidation, cached plans of older versions are recompiled. */
+    private static final AtomicLong VERSION = new AtomicLong();
+
+    /** Key of the version a request started with in the GraphQLContext. */
+    public static final String VERSION_KEY = "__cachingVersion";
+
+    /** Transactions that changed GraphQL elements and are not completed yet. */
+    private static final Set<Transaction> PENDING = ConcurrentHashMap.newKeySet();
+
+    /** Poll interval in seconds of the default broadcaster. */
+    private static final long POLL_INTERVAL = Long.getLong("org.efaps.graphql.InvalidationPollInterval", 10);
+
+    private static volatile InvalidationBroadcaster broadcaster = new DBInvalidationBroadcaster(
+                    POLL_INTERVAL * 1000);
+
     @Override
     public int getWeight()
     {
@@ -46,6 +74,7 @@ public class Caching
     public void onReloadSystemConfig(final Parameter parameter)
         throws EFapsException
     {
+        // the fields and mutations may read their properties from a SystemConfiguration
         clearCache();
     }
 
@@ -57,16 +86,136 @@ public class Caching
     }
 
     public Return clearCache(final Parameter parameter)
+        throws EFapsException
     {
-        clearCache();
+        invalidate();
         return new Return();
     }
 
+    /**
+     * Trigger on insert, update and delete of the GraphQL elements and their
+     * relations. The invalidation is published once per transaction, right
+     * before its commit, so that the other nodes only see it after the commit
+     * and its creation time is close to it. The caches of this node are
+     * cleared after the commit, a rollback keeps them.
+     */
+    public Return onElementChange(final Parameter parameter)
+        throws EFapsException
+    {
+        LOG.debug("GraphQL element changed: {}", parameter.get(ParameterValues.INSTANCE));
+        try {
+            final var transaction = Context.getTransactionManager().getTransaction();
+            if (transaction == null) {
+                invalidate();
+            } else if (PENDING.add(transaction)) {
+                transaction.registerSynchronization(new AfterCommit(transaction));
+            }
+        } catch (final SystemException | RollbackException e) {
+            throw new EFapsException(Caching.class, "onElementChange", e);
+        }
+        return new Return();
+    }
+
+    /**
+     * Clears the caches of this node and announces it to the other nodes.
+     */
+    public void invalidate()
+        throws EFapsException
+    {
+        clearCache();
+        broadcaster.publish();
+    }
+
+    /**
+     * Clears the caches of this node if they were invalidated on another
+     * node. Called at the start of each request.
+     */
+    public static void checkInvalidation()
+    {
+        try {
+            if (broadcaster.poll()) {
+                LOG.info("GraphQL caches were invalidated on another node");
+                new Caching().clearCache();
+            }
+        } catch (final EFapsException e) {
+            LOG.error("Could not check for invalidations", e);
+        }
+    }
+
+    public static void setBroadcaster(final InvalidationBroadcaster broadcaster)
+    {
+        Caching.broadcaster = broadcaster;
+    }
+
+    public static long getVersion()
+    {
+        return VERSION.get();
+    }
+
+    /**
+     * @param context context of the request
+     * @return the version the request started with, captured by its first
+     *         call, so that it is not mixed up with a later invalidation
+     */
+    public static long getVersion(final GraphQLContext context)
+    {
+        return context.computeIfAbsent(VERSION_KEY, key -> getVersion());
+    }
+
     public void clearCache()
     {
         LOG.info("Clear cache for GraphQL");
+        VERSION.incrementAndGet();
         EntryPointProvider.clearCache();
         MutationProvider.clearCache();
         TypeProvider.clearCache();
+        WhereTemplate.clearCache();
+        FetchPlan.clearCache();
+        DocumentCache.clearCache();
+        ResponseCache.clearCache();
+        LinktoResolver.clearCache();
+        WritePlan.clearCache();
+    }
+
+    /**
+     * Publishes the invalidation before the transaction that changed the
+     * GraphQL elements is committed and clears the caches of this node after
+     * it. The transaction is rolled back if the invalidation could not be
+     * published, the other nodes would keep their caches.
+     */
+    private static final class AfterCommit
+        implements Synchronization
+    {
+
+        private final Transaction transaction;
+
+        private AfterCommit(final Transaction transaction)
+        {
+            this.transaction = transaction;
+        }
+
+        @Override
+        public void beforeCompletion()
+        {
+            try {
+                broadcaster.publish();
+            } catch (final EFapsException e) {
+                LOG.error("Could not publish the invalidation", e);
+                try {
+                    transaction.setRollbackOnly();
+                } catch (final SystemException e1) {
+                    LOG.error("Could not mark the transaction for rollback", e1);
+                }
+            }
+        }
+
+        @Override
+        public void afterCompletion(final int status)
+        {
+            PENDING.remove(transaction);
+            if (status == Status.STATUS_COMMITTED) {
+                new Caching().clearCache();
+            }
+        }
     }
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+import org.efaps.admin.datamodel.Type;
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.db.Context;
+import org.efaps.db.Instance;
+import org.efaps.eql.EQL;
+import org.efaps.util.EFapsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Uses the shared database: an invalidation is written as a
+ * GraphQL_CacheInvalidation object, the other nodes look for the objects
+ * created since their last poll at most once per poll interval. The
+ * objects are created before their transaction commits, so each poll looks
+ * back an overlap window (system property
+ * org.efaps.graphql.InvalidationOverlap, seconds, default 60) and skips the
+ * objects it has seen already. Objects older than the retention (system
+ * property org.efaps.graphql.InvalidationRetention, seconds, default 3600)
+ * are deleted in a transaction of their own. A node that did not poll for
+ * longer than the retention clears its caches.
+ */
+@EFapsUUID("264476af-bc05-4de9-9416-27ed94a76e7c")
+@EFapsApplication("eFaps-GraphQL")
+public class DBInvalidationBroadcaster
+    implements InvalidationBroadcaster
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(DBInvalidationBroadcaster.class);
+
+    private static final String TYPE = "GraphQL_CacheInvalidation";
+
+    private static final String NODE_KEY = "__node";
+
+    /** Identifies this node, so that it ignores its own invalidations. */
+    private static final String NODE = UUID.randomUUID().toString();
+
+    private static final long OVERLAP = Long.getLong("org.efaps.graphql.InvalidationOverlap", 60) * 1000;
+
+    private static final long RETENTION = Long.getLong("org.efaps.graphql.InvalidationRetention", 3600) * 1000;
+
+    private final long interval;
+
+    /** IDs of the objects returned by the polls and the time they were seen first. */
+    private final Map<Long, Long> seen = new HashMap<>();
+
+    private long lastPoll;
+
+    private long lastPrune;
+
+    private boolean started;
+
+    /**
+     * @param interval poll interval in milliseconds
+     */
+    public DBInvalidationBroadcaster(final long interval)
+    {
+        this.interval = interval;
+    }
+
+    @Override
+    public synchronized void publish()
+        throws EFapsException
+    {
+        final var inst = EQL.builder().insert(Type.get(TYPE))
+                        .set("Name", NODE)
+                        .execute();
+        LOG.info("Published invalidation {}", inst.getId());
+        final var now = System.currentTimeMillis();
+        if (now - lastPrune >= RETENTION / 10) {
+            lastPrune = now;
+            final var person = Context.getThreadContext().getPerson();
+            final var userName = person == null ? null : person.getName();
+            ForkJoinPool.commonPool().execute(() -> prune(userName, now - RETENTION));
+        }
+    }
+
+    @Override
+    public synchronized boolean poll()
+        throws EFapsException
+    {
+        boolean ret = false;
+        final var now = System.currentTimeMillis();
+        if (now - lastPoll >= interval) {
+            final var since = (started ? lastPoll : now) - OVERLAP;
+            final var print = EQL.builder().print().query(TYPE)
+                            .where()
+                            .attribute("Created").greater(toDateTime(since))
+                            .select();
+            print.attribute("Name").as(NODE_KEY);
+            final var eval = print.evaluate();
+            boolean other = false;
+            while (eval.next()) {
+                if (seen.putIfAbsent(eval.inst().getId(), now) == null && !NODE.equals(eval.get(NODE_KEY))) {
+                    other = true;
+                }
+            }
+            // an object seen before is only returned again within the overlap
+            seen.values().removeIf(seenAt -> now - seenAt > 2 * OVERLAP);
+            // objects that were deleted before this node saw them count as invalidations
+            final var missed = now - lastPoll > RETENTION - OVERLAP;
+            // the caches of a starting node are fresh, only later invalidations count
+            ret = (other || missed) && started;
+            started = true;
+            lastPoll = now;
+        }
+        return ret;
+    }
+
+    /**
+     * Deletes the objects created before the given time, in a transaction of
+     * its own, so that the transaction that published is not delayed.
+     */
+    protected static void prune(final String userName,
+                                final long before)
+    {
+        try {
+            if (userName == null) {
+                Context.begin();
+            } else {
+                Context.begin(userName);
+            }
+            final var eval = EQL.builder().print().query(TYPE)
+                            .where()
+                            .attribute("Created").less(toDateTime(before))
+                            .select().instance()
+                            .evaluate();
+            final var outdated = new ArrayList<Instance>();
+            while (eval.next()) {
+                outdated.add(eval.inst());
+            }
+            if (!outdated.isEmpty()) {
+                EQL.builder().delete(outdated.toArray(new Instance[outdated.size()])).stmt().execute();
+                LOG.debug("Deleted {} outdated invalidations", outdated.size());
+            }
+            Context.commit();
+        } catch (final EFapsException e) {
+            LOG.error("Could not delete outdated invalidations", e);
+        } finally {
+            try {
+                if (Context.isTMActive()) {
+                    Context.rollback();
+                }
+            } catch (final EFapsException e) {
+                LOG.error("Could not rollback the deletion of outdated invalidations", e);
+            }
+        }
+    }
+
+    private static String toDateTime(final long millis)
+    {
+        return OffsetDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()).toString();
+    }
+}
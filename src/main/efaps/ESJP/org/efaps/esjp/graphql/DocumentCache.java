@@ -0,0 +1,158 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import graphql.ExecutionInput;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+import graphql.execution.preparsed.persisted.ApolloPersistedQuerySupport;
+import graphql.execution.preparsed.persisted.PersistedQueryCache;
+import graphql.execution.preparsed.persisted.PersistedQueryCacheMiss;
+import graphql.execution.preparsed.persisted.PersistedQueryNotFound;
+import graphql.execution.preparsed.persisted.PersistedQuerySupport;
+
+/**
+ * LRU cache of parsed and validated documents, keyed by the SHA-256 hash of
+ * the query. It also serves automatic persisted queries: a client can send
+ * only the hash in the extension "persistedQuery" and sends the query text
+ * only if the hash is not known yet. The ApolloPersistedQuerySupport
+ * rejects a query that does not match its hash. The cache depends on the schema and is cleared with it by
+ * Caching. The size is set by the system property
+ * org.efaps.graphql.DocumentCacheSize (default 1000).
+ * <p>
+ * The GraphQL instance is built by EFapsGraphQL in efaps-graphql, which has
+ * to pass {@link #get()} to GraphQL.Builder.preparsedDocumentProvider. This
+ * module has no access to that builder, so until efaps-graphql registers the
+ * provider no document is cached. Only {@link #hash(String)} is used
+ * meanwhile, by the QueryLog.
+ */
+@EFapsUUID("4f2efece-b63d-4249-8ac1-c72e4086352b")
+@EFapsApplication("eFaps-GraphQL")
+public final class DocumentCache
+    implements PreparsedDocumentProvider, PersistedQueryCache
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(DocumentCache.class);
+
+    private static final int MAX_SIZE = Integer.getInteger("org.efaps.graphql.DocumentCacheSize", 1000);
+
+    private static final DocumentCache INSTANCE = new DocumentCache();
+
+    private final Map<String, PreparsedDocumentEntry> cache = Collections.synchronizedMap(
+                    new LinkedHashMap<>(16, 0.75f, true)
+                    {
+
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        protected boolean removeEldestEntry(final Map.Entry<String, PreparsedDocumentEntry> eldest)
+                        {
+                            return size() > MAX_SIZE;
+                        }
+                    });
+
+    private final PersistedQuerySupport persistedQuerySupport = new ApolloPersistedQuerySupport(this);
+
+    private DocumentCache()
+    {
+    }
+
+    @Override
+    public CompletableFuture<PreparsedDocumentEntry> getDocumentAsync(
+                    final ExecutionInput executionInput,
+                    final Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction)
+    {
+        final CompletableFuture<PreparsedDocumentEntry> ret;
+        if (executionInput.getExtensions().containsKey("persistedQuery")) {
+            ret = persistedQuerySupport.getDocumentAsync(executionInput, parseAndValidateFunction);
+        } else {
+            final var key = hash(executionInput.getQuery());
+            var entry = cache.get(key);
+            if (entry == null) {
+                entry = parseAndValidateFunction.apply(executionInput);
+                put(key, entry);
+            }
+            ret = CompletableFuture.completedFuture(entry);
+        }
+        return ret;
+    }
+
+    @Override
+    public CompletableFuture<PreparsedDocumentEntry> getPersistedQueryDocumentAsync(
+                    final Object persistedQueryId,
+                    final ExecutionInput executionInput,
+                    final PersistedQueryCacheMiss onCacheMiss)
+        throws PersistedQueryNotFound
+    {
+        final var key = String.valueOf(persistedQueryId);
+        var entry = cache.get(key);
+        if (entry == null) {
+            LOG.debug("Persisted query {} is not cached", key);
+            // rejects a missing query and a query that does not match the hash
+            entry = onCacheMiss.apply(executionInput.getQuery());
+            put(key, entry);
+        }
+        return CompletableFuture.completedFuture(entry);
+    }
+
+    private void put(final String key,
+                     final PreparsedDocumentEntry entry)
+    {
+        // documents with errors are not kept, they are rare and may be huge
+        if (!entry.hasErrors()) {
+            cache.put(key, entry);
+        }
+    }
+
+    public static DocumentCache get()
+    {
+        return INSTANCE;
+    }
+
+    public static void clearCache()
+    {
+        INSTANCE.cache.clear();
+    }
+
+    /**
+     * @return the lower case hex SHA-256 hash, as used by automatic persisted
+     *         queries
+     */
+    public static String hash(final String query)
+    {
+        try {
+            final var digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(query.getBytes(StandardCharsets.UTF_8)));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.BooleanUtils;
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.esjp.common.properties.PropertiesUtil;
+import org.efaps.graphql.definition.ArgumentDef;
+import org.efaps.graphql.definition.ObjectDef;
+
+import graphql.schema.DataFetchingFieldSelectionSet;
+
+/**
+ * The resolved setup of a BaseDataFetcher for one field and one shape of
+ * selection set. It is compiled on the first request and reused by all
+ * requests with the same shape, so that they only have to bind the
+ * arguments and evaluate.
+ */
+@EFapsUUID("f878b1cc-78ac-4b46-be49-49192f70f840")
+@EFapsApplication("eFaps-GraphQL")
+public final class FetchPlan
+{
+
+    /** Upper bound of cached plans, reached only by ad hoc queries. */
+    private static final int MAX_SIZE = 2000;
+
+    private static final Map<String, FetchPlan> CACHE = new ConcurrentHashMap<>();
+
+    private final long version;
+
+    private final Properties properties;
+
+    private final String graphTypeName;
+
+    private final ObjectDef objectDef;
+
+    private final List<ArgumentDef> argumentDefs;
+
+    private final String[] types;
+
+    private final String linkFrom;
+
+    private final boolean linkFromBatch;
+
+    private final List<String> staticWhere;
+
+    private final boolean connection;
+
+    private final String firstArgument;
+
+    private final String afterArgument;
+
+    private final Integer pageSize;
+
+    private final Integer maxPageSize;
+
+    private final String orderByArgument;
+
+    private final String defaultOrderBy;
+
+    private final Integer cacheTTL;
+
+    private final Map<String, Object> staticValues = new LinkedHashMap<>();
+
+    private final Map<String, String> selects = new LinkedHashMap<>();
+
+    private final List<Field> fields = new ArrayList<>();
+
+    /** Slot of the row by field name, slot 0 is the current instance. */
+    private final Map<String, Integer> index = new HashMap<>();
+
+    public FetchPlan(final long version,
+                     final Properties properties,
+                     final String graphTypeName,
+                     final ObjectDef objectDef,
+                     final List<ArgumentDef> argumentDefs)
+    {
+        this.version = version;
+        this.properties = properties;
+        this.graphTypeName = graphTypeName;
+        this.objectDef = objectDef;
+        this.argumentDefs = argumentDefs;
+        index.put("currentInstance", 0);
+        final var typeMap = PropertiesUtil.analyseProperty(properties, "Type", 0);
+        types = typeMap.values().toArray(new String[typeMap.size()]);
+        final var linkFroms = PropertiesUtil.analyseProperty(properties, "LinkFrom", 0);
+        linkFrom = linkFroms.isEmpty() ? null : linkFroms.values().iterator().next();
+        linkFromBatch = BooleanUtils.toBoolean(properties.getProperty("LinkFromBatch"));
+        staticWhere = new ArrayList<>(PropertiesUtil.analyseProperty(properties, "StaticWhere", 0).values());
+        final var staticKeys = PropertiesUtil.analyseProperty(properties, "StaticKey", 0);
+        final var values = PropertiesUtil.analyseProperty(properties, "StaticValue", 0);
+        for (final var entry : staticKeys.entrySet()) {
+            staticValues.put(entry.getValue(), values.get(entry.getKey()));
+        }
+        connection = BooleanUtils.toBoolean(properties.getProperty("Connection"));
+        firstArgument = properties.getProperty("FirstArgument", "first");
+        afterArgument = properties.getProperty("AfterArgument", "after");
+        pageSize = properties.containsKey("PageSize") ? Integer.valueOf(properties.getProperty("PageSize")) : null;
+        maxPageSize = properties.containsKey("MaxPageSize") ? Integer.valueOf(properties.getProperty("MaxPageSize"))
+                        : null;
+        orderByArgument = properties.getProperty("OrderByArgument", "orderBy");
+        defaultOrderBy = properties.getProperty("DefaultOrderBy");
+        cacheTTL = properties.containsKey("CacheTTL") ? Integer.valueOf(properties.getProperty("CacheTTL")) : null;
+    }
+
+    /**
+     * @return the version of Caching the plan was compiled for
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    public Properties getProperties()
+    {
+        return properties;
+    }
+
+    public String getGraphTypeName()
+    {
+        return graphTypeName;
+    }
+
+    public ObjectDef getObjectDef()
+    {
+        return objectDef;
+    }
+
+    public List<ArgumentDef> getArgumentDefs()
+    {
+        return argumentDefs;
+    }
+
+    public String[] getTypes()
+    {
+        return types;
+    }
+
+    public String getLinkFrom()
+    {
+        return linkFrom;
+    }
+
+    public boolean isLinkFromBatch()
+    {
+        return linkFromBatch;
+    }
+
+    public List<String> getStaticWhere()
+    {
+        return staticWhere;
+    }
+
+    /**
+     * @return true if the field returns a connection with edges and pageInfo
+     *         instead of a plain list
+     */
+    public boolean isConnection()
+    {
+        return connection;
+    }
+
+    public String getFirstArgument()
+    {
+        return firstArgument;
+    }
+
+    public String getAfterArgument()
+    {
+        return afterArgument;
+    }
+
+    /**
+     * @return the page size used if no first argument is given, null for
+     *         no limit
+     */
+    public Integer getPageSize()
+    {
+        return pageSize;
+    }
+
+    /**
+     * @return the upper bound of the page size, null for no bound
+     */
+    public Integer getMaxPageSize()
+    {
+        return maxPageSize;
+    }
+
+    public String getOrderByArgument()
+    {
+        return orderByArgument;
+    }
+
+    /**
+     * @return comma separated field names used if no orderBy argument is
+     *         given, a leading "-" sorts descending
+     */
+    public String getDefaultOrderBy()
+    {
+        return defaultOrderBy;
+    }
+
+    /**
+     * @return seconds the result is kept in the ResponseCache, null if it is
+     *         not cached
+     */
+    public Integer getCacheTTL()
+    {
+        return cacheTTL;
+    }
+
+    public Map<String, Object> getStaticValues()
+    {
+        return staticValues;
+    }
+
+    /**
+     * @return mapping of alias to select
+     */
+    public Map<String, String> getSelects()
+    {
+        return selects;
+    }
+
+    public List<Field> getFields()
+    {
+        return fields;
+    }
+
+    public FetchPlan addSelect(final String alias,
+                               final String select)
+    {
+        selects.put(alias, select);
+        return this;
+    }
+
+    public FetchPlan addField(final Field field)
+    {
+        fields.add(field);
+        index.put(field.getName(), fields.size());
+        return this;
+    }
+
+    /**
+     * @return a new empty row with a slot for the instance and each field
+     */
+    public FetchRow newRow()
+    {
+        return new FetchRow(index, staticValues, fields.size() + 1);
+    }
+
+    public static String key(final String parentTypeName,
+                             final String fieldName,
+                             final DataFetchingFieldSelectionSet selectionSet)
+    {
+        final var ret = new StringBuilder().append(parentTypeName).append('.').append(fieldName).append('{');
+        for (final var selectedField : selectionSet.getFields()) {
+            ret.append(selectedField.getFullyQualifiedName()).append(',');
+        }
+        return ret.append('}').toString();
+    }
+
+    /**
+     * @param key key of the plan
+     * @param version version of Caching the request started with
+     * @param compiler compiles the plan if there is none for the version
+     * @return the plan
+     */
+    public static FetchPlan get(final String key,
+                                final long version,
+                                final Function<String, FetchPlan> compiler)
+    {
+        var ret = CACHE.get(key);
+        if (ret == null || ret.getVersion() != version) {
+            ret = compiler.apply(key);
+            // a plan of a request that started before the cache was cleared is not kept
+            if (version == Caching.getVersion()) {
+                if (CACHE.size() > MAX_SIZE) {
+                    CACHE.clear();
+                }
+                CACHE.put(key, ret);
+            }
+        }
+        return ret;
+    }
+
+    public static void clearCache()
+    {
+        CACHE.clear();
+    }
+
+    public enum Kind
+    {
+        /** Value read directly from the evaluator. */
+        VALUE,
+        /** Object without own DataFetcher, built from the child fields. */
+        OBJECT,
+        /** List of objects without own DataFetcher, built from the child fields. */
+        LIST;
+    }
+
+    public static final class Field
+    {
+
+        private final String name;
+
+        private final String alias;
+
+        private final Kind kind;
+
+        private final List<Field> children;
+
+        private final Map<String, Integer> index = new HashMap<>();
+
+        public Field(final String name,
+                     final String alias,
+                     final Kind kind,
+                     final List<Field> children)
+        {
+            this.name = name;
+            this.alias = alias;
+            this.kind = kind;
+            this.children = children == null ? Collections.emptyList() : children;
+            for (int i = 0; i < this.children.size(); i++) {
+                index.put(this.children.get(i).getName(), i);
+            }
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getAlias()
+        {
+            return alias;
+        }
+
+        public Kind getKind()
+        {
+            return kind;
+        }
+
+        public List<Field> getChildren()
+        {
+            return children;
+        }
+
+        /**
+         * @return a new empty row with a slot for each child
+         */
+        public FetchRow newRow()
+        {
+            return new FetchRow(index, null, children.size());
+        }
+    }
+}
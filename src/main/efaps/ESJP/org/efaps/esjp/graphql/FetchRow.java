@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+
+/**
+ * Read only row of a result. The values are kept in fixed slots, the index
+ * of the slots and the static values are shared by all rows of a FetchPlan.
+ * It is a Map so that the default property fetchers of graphql-java can read
+ * it.
+ */
+@EFapsUUID("3c84889d-5723-4815-92f5-9a09cb2c57a5")
+@EFapsApplication("eFaps-GraphQL")
+public final class FetchRow
+    extends AbstractMap<String, Object>
+{
+
+    private final Map<String, Integer> index;
+
+    private final Map<String, Object> shared;
+
+    private final Object[] values;
+
+    public FetchRow(final Map<String, Integer> index,
+                    final Map<String, Object> shared,
+                    final int size)
+    {
+        this.index = index;
+        this.shared = shared == null ? Collections.emptyMap() : shared;
+        values = new Object[size];
+    }
+
+    public void set(final int slot,
+                    final Object value)
+    {
+        values[slot] = value;
+    }
+
+    @Override
+    public Object get(final Object key)
+    {
+        final var slot = index.get(key);
+        return slot == null ? shared.get(key) : values[slot];
+    }
+
+    @Override
+    public boolean containsKey(final Object key)
+    {
+        return index.containsKey(key) || shared.containsKey(key);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet()
+    {
+        final var ret = new LinkedHashMap<String, Object>(shared);
+        for (final var entry : index.entrySet()) {
+            ret.put(entry.getKey(), values[entry.getValue()]);
+        }
+        return Collections.unmodifiableMap(ret).entrySet();
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+
+import graphql.execution.DataFetcherResult;
+
+/**
+ * Latency histogram, invocations, errors, rows and EQL statements per field
+ * coordinates ("Type.field") and the QueryCost of the operations. The counters are lock free, so recording costs
+ * a few nanoseconds per field. The fields are recorded by the
+ * AbstractDataFetcher, the statements by Statements for the field currently
+ * fetched by the thread.
+ * <p>
+ * The calls per second since the last reset give the throughput of the
+ * DataFetchers under real load. Allocation is measured offline by the
+ * benchmarks of the jmh profile, not on the request path.
+ */
+@EFapsUUID("ed54970e-ba0d-49c5-a1b0-26a63cf6f030")
+@EFapsApplication("eFaps-GraphQL")
+public final class FieldMetrics
+{
+
+    /** Upper bounds in milliseconds of the histogram buckets. */
+    private static final long[] BOUNDS = { 1, 5, 10, 50, 100, 500, 1000, 5000 };
+
+    private static final Map<String, Metric> METRICS = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Fetch> CURRENT = new ThreadLocal<>();
+
+    private static final LongAdder OPERATIONS = new LongAdder();
+
+    private static final LongAdder REJECTED = new LongAdder();
+
+    private static final LongAdder TOTAL_COST = new LongAdder();
+
+    private static final LongAccumulator MAX_COST = new LongAccumulator(Math::max, 0);
+
+    private static volatile long since = System.currentTimeMillis();
+
+    private FieldMetrics()
+    {
+    }
+
+    /**
+     * @return the fetch of the field, registered as the current one of the
+     *         thread until {@link #stop(Fetch, Object, boolean)}
+     */
+    public static Fetch start(final String coordinates)
+    {
+        final var ret = new Fetch(METRICS.computeIfAbsent(coordinates, Metric::new), CURRENT.get());
+        CURRENT.set(ret);
+        return ret;
+    }
+
+    public static void stop(final Fetch fetch,
+                            final Object result,
+                            final boolean error)
+    {
+        fetch.nanos = System.nanoTime() - fetch.startNanos;
+        if (fetch.previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(fetch.previous);
+        }
+        fetch.metric.record(fetch.nanos, rows(result), fetch.statements, error);
+    }
+
+    /**
+     * Counts one EQL statement for the field currently fetched by the thread.
+     */
+    static void statement()
+    {
+        final var fetch = CURRENT.get();
+        if (fetch != null) {
+            fetch.statements++;
+        }
+    }
+
+    /**
+     * Records the QueryCost of an operation.
+     */
+    public static void operation(final long cost,
+                                 final boolean rejected)
+    {
+        OPERATIONS.increment();
+        TOTAL_COST.add(cost);
+        MAX_COST.accumulate(cost);
+        if (rejected) {
+            REJECTED.increment();
+        }
+    }
+
+    protected static long rows(final Object result)
+    {
+        final var data = result instanceof final DataFetcherResult<?> fetcherResult ? fetcherResult.getData()
+                        : result;
+        long ret = 0;
+        if (data instanceof final List<?> list) {
+            ret = list.size();
+        } else if (data instanceof final Map<?, ?> map && map.get("edges") instanceof final List<?> edges) {
+            ret = edges.size();
+        } else if (data != null) {
+            ret = 1;
+        }
+        return ret;
+    }
+
+    public static List<Metric> getMetrics()
+    {
+        final var ret = new ArrayList<>(METRICS.values());
+        ret.sort(Comparator.comparingLong(Metric::getTotalNanos).reversed());
+        return ret;
+    }
+
+    public static void reset()
+    {
+        METRICS.clear();
+        OPERATIONS.reset();
+        REJECTED.reset();
+        TOTAL_COST.reset();
+        MAX_COST.reset();
+        since = System.currentTimeMillis();
+    }
+
+    /**
+     * @return text table of all fields, the most expensive first
+     */
+    public static String snapshot()
+    {
+        final var seconds = Math.max(1, (System.currentTimeMillis() - since) / 1000d);
+        final var ret = new StringBuilder()
+                        .append(String.format("Since %s (%.0f s)%n", Instant.ofEpochMilli(since), seconds));
+        final var operations = OPERATIONS.sum();
+        ret.append(String.format("Operations %d, rejected %d, avg cost %.1f, max cost %d%n", operations,
+                        REJECTED.sum(), operations == 0 ? 0d : TOTAL_COST.sum() / (double) operations,
+                        MAX_COST.get()))
+                        .append(String.format("%-50s %10s %10s %8s %10s %10s %12s %12s",
+                                        "Field", "Calls", "Calls/s", "Errors", "Avg ms", "Max ms", "Rows",
+                                        "Statements"));
+        for (final var bound : BOUNDS) {
+            ret.append(String.format(" %8s", "<" + bound));
+        }
+        ret.append(String.format(" %8s%n", ">=" + BOUNDS[BOUNDS.length - 1]));
+        for (final var metric : getMetrics()) {
+            final var calls = metric.invocations.sum();
+            ret.append(String.format("%-50s %10d %10.2f %8d %10.2f %10.2f %12d %12d",
+                            metric.getCoordinates(), calls, calls / seconds, metric.errors.sum(),
+                            calls == 0 ? 0d : toMillis(metric.getTotalNanos() / calls),
+                            toMillis(metric.maxNanos.get()), metric.rows.sum(), metric.statements.sum()));
+            for (final var bucket : metric.buckets) {
+                ret.append(String.format(" %8d", bucket.sum()));
+            }
+            ret.append(System.lineSeparator());
+        }
+        return ret.toString();
+    }
+
+    private static double toMillis(final long nanos)
+    {
+        return nanos / 1_000_000d;
+    }
+
+    public static final class Metric
+    {
+
+        private final String coordinates;
+
+        private final LongAdder invocations = new LongAdder();
+
+        private final LongAdder errors = new LongAdder();
+
+        private final LongAdder rows = new LongAdder();
+
+        private final LongAdder statements = new LongAdder();
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+
+        private Metric(final String coordinates)
+        {
+            this.coordinates = coordinates;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(final long nanos,
+                            final long rowCount,
+                            final int statementCount,
+                            final boolean error)
+        {
+            invocations.increment();
+            if (error) {
+                errors.increment();
+            }
+            rows.add(rowCount);
+            statements.add(statementCount);
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            final var millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int idx = 0;
+            while (idx < BOUNDS.length && millis >= BOUNDS[idx]) {
+                idx++;
+            }
+            buckets[idx].increment();
+        }
+
+        public String getCoordinates()
+        {
+            return coordinates;
+        }
+
+        public long getInvocations()
+        {
+            return invocations.sum();
+        }
+
+        public long getStatements()
+        {
+            return statements.sum();
+        }
+
+        public long getTotalNanos()
+        {
+            return totalNanos.sum();
+        }
+    }
+
+    /**
+     * One invocation of a DataFetcher.
+     */
+    public static final class Fetch
+    {
+
+        private final Metric metric;
+
+        private final Fetch previous;
+
+        private final long startNanos = System.nanoTime();
+
+        private long nanos;
+
+        private int statements;
+
+        private Fetch(final Metric metric,
+                      final Fetch previous)
+        {
+            this.metric = metric;
+            this.previous = previous;
+        }
+
+        public String getCoordinates()
+        {
+            return metric.getCoordinates();
+        }
+
+        /**
+         * @return the duration, set on stop
+         */
+        public long getNanos()
+        {
+            return nanos;
+        }
+
+        public int getStatements()
+        {
+            return statements;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.util.EFapsException;
+
+/**
+ * Distributes the invalidation of the GraphQL caches to the other nodes of
+ * a cluster.
+ */
+@EFapsUUID("56e53819-1723-4d83-b5f0-7aef2ce29e3b")
+@EFapsApplication("eFaps-GraphQL")
+public interface InvalidationBroadcaster
+{
+
+    /**
+     * Announces that the caches were invalidated on this node. Called inside
+     * the transaction that changed the GraphQL elements, the announcement
+     * must not be visible to the other nodes before its commit.
+     */
+    void publish()
+        throws EFapsException;
+
+    /**
+     * @return true if the caches were invalidated on another node since the
+     *         last call
+     */
+    boolean poll()
+        throws EFapsException;
+}
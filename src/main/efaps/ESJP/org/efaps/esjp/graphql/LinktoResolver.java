@@ -0,0 +1,277 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.efaps.admin.datamodel.Type;
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.db.Context;
+import org.efaps.db.Instance;
+import org.efaps.eql.EQL;
+import org.efaps.esjp.common.properties.PropertiesUtil;
+import org.efaps.util.EFapsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the values for "linkto[LinkAttribute].attribute[Attribute]"
+ * selects of one mutation. All values of the mutation are looked up up front
+ * with one query per linked type and attribute, each value only once.
+ * <p>
+ * For stable master data the types can be registered with the properties
+ * LinktoCacheType01, LinktoCacheType02... Their lookups are kept across
+ * requests for LinktoCacheTTL seconds (default 300), separately for each
+ * company.
+ */
+@EFapsUUID("c805928e-ee12-496c-a59c-078be99a1ecc")
+@EFapsApplication("eFaps-GraphQL")
+public class LinktoResolver
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(LinktoResolver.class);
+
+    private static final Pattern LINKTO_PATTERN = Pattern.compile("linkto\\[([\\w\\d]+).*");
+
+    private static final Pattern ATTR_PATTERN = Pattern.compile("attribute\\[([\\w\\d]+).*");
+
+    /** Upper bound of entries kept across requests. */
+    private static final int MAX_SIZE = 10000;
+
+    private static final Map<String, CacheEntry> CACHE = new ConcurrentHashMap<>();
+
+    private static final String KEY = "__key";
+
+    private final Map<String, Instance> resolved = new HashMap<>();
+
+    private final Set<String> cachedTypes;
+
+    private final long ttl;
+
+    public LinktoResolver(final Properties properties)
+    {
+        cachedTypes = new HashSet<>(PropertiesUtil.analyseProperty(properties, "LinktoCacheType", 0).values());
+        ttl = Long.parseLong(properties.getProperty("LinktoCacheTTL", "300")) * 1000;
+    }
+
+    /**
+     * Resolves all linkto values of the given values, including the ones
+     * of attribute sets and classifications, with one query per linked type
+     * and attribute.
+     */
+    public void prefetch(final Type type,
+                         final Map<String, Object> values)
+        throws EFapsException
+    {
+        final Map<String, Set<String>> pending = new LinkedHashMap<>();
+        collect(type, values, pending);
+        for (final var entry : pending.entrySet()) {
+            final var typeAttr = entry.getKey().split("\\|");
+            final var crits = entry.getValue();
+            LOG.debug("Resolving {} linkto values for {}", crits.size(), entry.getKey());
+            final var print = EQL.builder().print()
+                            .query(typeAttr[0])
+                            .where()
+                            .attribute(typeAttr[1]).in(crits.toArray(new String[crits.size()]))
+                            .select();
+            print.select("attribute[" + typeAttr[1] + "]").as(KEY);
+            final var eval = Statements.evaluate(print);
+            while (eval.next()) {
+                final var crit = matchCriterion(crits, eval.get(KEY));
+                final var key = entry.getKey() + "|" + crit;
+                if (crit == null) {
+                    LOG.debug("No criterion found for value {}", (Object) eval.get(KEY));
+                } else if (!resolved.containsKey(key)) {
+                    resolved.put(key, eval.inst());
+                    if (cachedTypes.contains(typeAttr[0])) {
+                        put(key, eval.inst());
+                    }
+                }
+            }
+            // remember the misses, so they are not queried again
+            for (final var crit : crits) {
+                resolved.putIfAbsent(entry.getKey() + "|" + crit, null);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void collect(final Type type,
+                           final Map<String, Object> values,
+                           final Map<String, Set<String>> pending)
+        throws EFapsException
+    {
+        for (final var entry : values.entrySet()) {
+            final var action = WritePlan.action(entry.getKey());
+            if (action.type() == WritePlan.ActionType.LINKTO && entry.getValue() != null) {
+                final var groupKey = getGroupKey(type, action.select());
+                final var crit = String.valueOf(entry.getValue());
+                final var key = groupKey + "|" + crit;
+                if (!resolved.containsKey(key)) {
+                    final var cached = get(key);
+                    if (cached == null) {
+                        pending.computeIfAbsent(groupKey, k -> new HashSet<>()).add(crit);
+                    } else {
+                        resolved.put(key, cached);
+                    }
+                }
+            }
+            if (action.type() == WritePlan.ActionType.ATTRIBUTESET && entry.getValue() != null) {
+                final var attrSet = WritePlan.attributeSet(type, action.name());
+                for (final var valuesEntry : (List<Map<String, Object>>) entry.getValue()) {
+                    collect(attrSet, valuesEntry, pending);
+                }
+            }
+            if (action.type() == WritePlan.ActionType.CLASS && entry.getValue() != null) {
+                collect(WritePlan.classification(action.name()),
+                                (Map<String, Object>) entry.getValue(), pending);
+            }
+        }
+    }
+
+    /**
+     * The database may return the value in another form than it was given,
+     * e.g. "1.00" for "1" of a decimal attribute.
+     *
+     * @return the criterion the value was found for, null if none matches
+     */
+    protected String matchCriterion(final Set<String> crits,
+                                    final Object value)
+    {
+        String ret = null;
+        final var str = String.valueOf(value);
+        if (crits.contains(str)) {
+            ret = str;
+        } else {
+            final var normalized = normalize(str);
+            if (normalized != null) {
+                for (final var crit : crits) {
+                    if (normalized.equals(normalize(crit))) {
+                        ret = crit;
+                        break;
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the canonical form of a number, null if it is none
+     */
+    protected String normalize(final String value)
+    {
+        String ret;
+        try {
+            ret = new BigDecimal(value).stripTrailingZeros().toPlainString();
+        } catch (final NumberFormatException e) {
+            ret = null;
+        }
+        return ret;
+    }
+
+    /**
+     * @return the instance for the value, null if not found
+     */
+    public Instance resolve(final Type type,
+                            final String linkto,
+                            final Object value)
+        throws EFapsException
+    {
+        final var key = getGroupKey(type, linkto) + "|" + value;
+        if (!resolved.containsKey(key)) {
+            final var pending = new HashMap<String, Object>();
+            pending.put(linkto, value);
+            prefetch(type, pending);
+        }
+        return resolved.get(key);
+    }
+
+    public String getLinkAttributeName(final String linkto)
+    {
+        final var linkMatcher = LINKTO_PATTERN.matcher(linkto);
+        linkMatcher.find();
+        return linkMatcher.group(1);
+    }
+
+    protected String getGroupKey(final Type type,
+                                 final String linkto)
+    {
+        final var attrMatcher = ATTR_PATTERN.matcher(linkto);
+        attrMatcher.find();
+        final var linktoType = type.getAttribute(getLinkAttributeName(linkto)).getLink();
+        return linktoType.getName() + "|" + attrMatcher.group(1);
+    }
+
+    /**
+     * @return the key of the cache, the master data may depend on the company
+     */
+    protected String getCacheKey(final String key)
+        throws EFapsException
+    {
+        final var company = Context.getThreadContext().getCompany();
+        return (company == null ? 0 : company.getId()) + "|" + key;
+    }
+
+    protected Instance get(final String key)
+        throws EFapsException
+    {
+        Instance ret = null;
+        final var cacheKey = getCacheKey(key);
+        final var cacheEntry = CACHE.get(cacheKey);
+        if (cacheEntry != null) {
+            if (cacheEntry.expires() > System.currentTimeMillis()) {
+                ret = cacheEntry.instance();
+            } else {
+                CACHE.remove(cacheKey);
+            }
+        }
+        return ret;
+    }
+
+    protected void put(final String key,
+                       final Instance instance)
+        throws EFapsException
+    {
+        if (CACHE.size() >= MAX_SIZE) {
+            final var now = System.currentTimeMillis();
+            CACHE.values().removeIf(cacheEntry -> cacheEntry.expires() <= now);
+            if (CACHE.size() >= MAX_SIZE) {
+                CACHE.clear();
+            }
+        }
+        CACHE.put(getCacheKey(key), new CacheEntry(instance, System.currentTimeMillis() + ttl));
+    }
+
+    public static void clearCache()
+    {
+        CACHE.clear();
+    }
+
+    private record CacheEntry(Instance instance, long expires)
+    {
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+
+/**
+ * In process stand-in for a single node and for tests. Invalidations of
+ * other nodes are simulated with invalidateRemote.
+ */
+@EFapsUUID("a8223b61-26bf-489c-a457-fceef9bd4fa8")
+@EFapsApplication("eFaps-GraphQL")
+public class LocalInvalidationBroadcaster
+    implements InvalidationBroadcaster
+{
+
+    private final AtomicLong published = new AtomicLong();
+
+    private final AtomicLong remote = new AtomicLong();
+
+    private final AtomicLong seen = new AtomicLong();
+
+    @Override
+    public void publish()
+    {
+        published.incrementAndGet();
+    }
+
+    @Override
+    public boolean poll()
+    {
+        final var current = remote.get();
+        return seen.getAndSet(current) != current;
+    }
+
+    /**
+     * Simulates an invalidation on another node.
+     */
+    public void invalidateRemote()
+    {
+        remote.incrementAndGet();
+    }
+
+    /**
+     * @return number of invalidations published by this node
+     */
+    public long getPublished()
+    {
+        return published.get();
+    }
+}
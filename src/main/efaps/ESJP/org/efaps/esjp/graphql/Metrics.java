@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.text.StringEscapeUtils;
+import org.efaps.admin.event.Parameter;
+import org.efaps.admin.event.Return;
+import org.efaps.admin.event.Return.ReturnValues;
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.esjp.ci.CIFormGraphQL;
+import org.efaps.esjp.common.file.FileUtil;
+import org.efaps.util.EFapsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shows, resets and exports the FieldMetrics recorded by the
+ * AbstractDataFetcher.
+ */
+@EFapsUUID("d514590a-8ef0-4c82-b1c6-949bc77ee8f9")
+@EFapsApplication("eFaps-GraphQL")
+public class Metrics
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
+
+    public Return snapshot(final Parameter parameter)
+        throws EFapsException
+    {
+        final Return ret = new Return();
+        ret.put(ReturnValues.SNIPLETT, getSnipplet(getSnapshot()));
+        return ret;
+    }
+
+    public Return reset(final Parameter parameter)
+        throws EFapsException
+    {
+        LOG.info("Resetting GraphQL field metrics");
+        FieldMetrics.reset();
+        return snapshot(parameter);
+    }
+
+    public Return export(final Parameter parameter)
+        throws EFapsException
+    {
+        final Return ret = new Return();
+        final var file = new FileUtil().getFile("GraphQLMetrics", "txt");
+        try {
+            Files.writeString(file.toPath(), getSnapshot(), StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            throw new EFapsException(Metrics.class, "export", e);
+        }
+        ret.put(ReturnValues.VALUES, file);
+        ret.put(ReturnValues.TRUE, true);
+        return ret;
+    }
+
+    protected String getSnapshot()
+    {
+        return FieldMetrics.snapshot();
+    }
+
+    protected String getSnipplet(final String snapshot)
+    {
+        return new StringBuilder()
+                        .append("document.getElementsByName('")
+                        .append(CIFormGraphQL.GraphQL_MetricsForm.result.name)
+                        .append("')[0].innerHTML=\"")
+                        .append("<style> .eFapsForm .unlabeled .field { display: inline;} ")
+                        .append(" #metrics{ max-height: 500px; overflow: auto; width: 100%;")
+                        .append(" background-color: lightgray; padding: 5px 10px;}")
+                        .append("</style><pre id='metrics'>")
+                        .append(StringEscapeUtils.escapeEcmaScript(StringEscapeUtils.escapeHtml4(snapshot)))
+                        .append("</pre>\";")
+                        .toString();
+    }
+}
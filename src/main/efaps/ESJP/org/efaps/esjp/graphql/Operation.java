@@ -0,0 +1,185 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.db.Context;
+import org.efaps.util.EFapsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import graphql.language.AstPrinter;
+import graphql.language.AstSignature;
+import graphql.language.Document;
+import graphql.schema.DataFetchingEnvironment;
+import jakarta.transaction.RollbackException;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.SystemException;
+
+/**
+ * State of one GraphQL operation, kept in the GraphQLContext. It is created
+ * by the first DataFetcher of the operation and collects the fields fetched
+ * by the AbstractDataFetcher. Its QueryCost is evaluated once, when it is
+ * created, for the whole document. The operation ends with the transaction of the
+ * request, then it is handed to the QueryLog.
+ */
+@EFapsUUID("665e86a3-1f27-4593-9d98-374fc6309f63")
+@EFapsApplication("eFaps-GraphQL")
+public final class Operation
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(Operation.class);
+
+    /** Key of the operation in the GraphQLContext. */
+    public static final String KEY = "__operation";
+
+    private final long startNanos = System.nanoTime();
+
+    private final Document document;
+
+    private final String operationName;
+
+    private final Map<String, Object> variables;
+
+    private final QueryCost queryCost;
+
+    /** Calls, nanos and statements by field coordinates. */
+    private final Map<String, long[]> fields = new ConcurrentHashMap<>();
+
+    private String userName;
+
+    private Long companyId;
+
+    private Operation(final DataFetchingEnvironment environment)
+    {
+        document = environment.getDocument();
+        operationName = environment.getOperationDefinition() == null
+                        ? null : environment.getOperationDefinition().getName();
+        variables = environment.getVariables();
+        queryCost = QueryCost.eval(environment);
+    }
+
+    /**
+     * @return the operation of the environment, started by the first call
+     */
+    public static Operation get(final DataFetchingEnvironment environment)
+    {
+        return environment.getGraphQlContext().computeIfAbsent(KEY, key -> start(environment));
+    }
+
+    private static Operation start(final DataFetchingEnvironment environment)
+    {
+        final var ret = new Operation(environment);
+        FieldMetrics.operation(ret.queryCost.getCost(), ret.queryCost.isRejected());
+        if (QueryLog.isEnabled()) {
+            try {
+                final var context = Context.getThreadContext();
+                ret.userName = context.getPerson() == null ? null : context.getPerson().getName();
+                ret.companyId = context.getCompany() == null ? null : context.getCompany().getId();
+                final var transaction = Context.getTransactionManager().getTransaction();
+                if (transaction == null) {
+                    LOG.debug("No transaction, the operation is not logged");
+                } else {
+                    transaction.registerSynchronization(new AfterCompletion(ret));
+                }
+            } catch (final EFapsException | SystemException | RollbackException e) {
+                LOG.error("Could not register the operation for the query log", e);
+            }
+        }
+        return ret;
+    }
+
+    public void add(final FieldMetrics.Fetch fetch)
+    {
+        fields.merge(fetch.getCoordinates(), new long[] { 1, fetch.getNanos(), fetch.getStatements() },
+                        (current, added) -> new long[] { current[0] + added[0], current[1] + added[1],
+                            current[2] + added[2] });
+    }
+
+    public long getStartNanos()
+    {
+        return startNanos;
+    }
+
+    public QueryCost getQueryCost()
+    {
+        return queryCost;
+    }
+
+    public String getUserName()
+    {
+        return userName;
+    }
+
+    public Long getCompanyId()
+    {
+        return companyId;
+    }
+
+    protected QueryLog.Entry toEntry(final long duration)
+    {
+        // the signature removes literals and sorts, so equal queries get the same hash
+        final var query = AstPrinter.printAstCompact(new AstSignature().signatureQuery(document, operationName));
+        final var breakdown = new StringBuilder();
+        long statements = 0;
+        final var sorted = new ArrayList<>(fields.entrySet());
+        sorted.sort((entry1, entry2) -> Long.compare(entry2.getValue()[1], entry1.getValue()[1]));
+        for (final var field : sorted) {
+            final var values = field.getValue();
+            statements = statements + values[2];
+            breakdown.append(String.format("%s calls=%d ms=%.2f statements=%d%n", field.getKey(), values[0],
+                            values[1] / 1_000_000d, values[2]));
+        }
+        return new QueryLog.Entry(DocumentCache.hash(query), operationName,
+                        StringUtils.abbreviate(query, QueryLog.MAX_LENGTH),
+                        StringUtils.abbreviate(QueryLog.shape(variables), QueryLog.MAX_VARIABLES_LENGTH),
+                        duration, statements, queryCost.getCost(),
+                        StringUtils.abbreviate(breakdown.toString(), QueryLog.MAX_LENGTH));
+    }
+
+    /**
+     * Ends the operation with the transaction of the request.
+     */
+    private static final class AfterCompletion
+        implements Synchronization
+    {
+
+        private final Operation operation;
+
+        private AfterCompletion(final Operation operation)
+        {
+            this.operation = operation;
+        }
+
+        @Override
+        public void beforeCompletion()
+        {
+            // nothing to do before the commit
+        }
+
+        @Override
+        public void afterCompletion(final int status)
+        {
+            QueryLog.capture(operation);
+        }
+    }
+}
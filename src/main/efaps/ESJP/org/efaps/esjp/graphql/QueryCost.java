@@ -0,0 +1,253 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.graphql.providers.DataFetcherProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import graphql.execution.CoercedVariables;
+import graphql.normalized.ExecutableNormalizedField;
+import graphql.normalized.ExecutableNormalizedOperationFactory;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.FieldCoordinates;
+import graphql.schema.GraphQLList;
+import graphql.schema.GraphQLTypeUtil;
+
+/**
+ * Static estimate of the cost of an operation, computed once by its first
+ * DataFetcher before any root field is executed. Each field costs
+ * CostWeightField (default 1), plus CostWeightDataFetcher (default 10) if it
+ * has its own DataFetcher, plus CostWeightLinkFrom (default 20) if that one
+ * uses LinkFrom. The cost of the children of a list is multiplied by
+ * CostListFactor (default 10). The weights and the limits MaxCost and
+ * MaxDepth are read from the properties of each root field and apply to its
+ * selection. The cost of the whole operation is limited by the system
+ * property org.efaps.graphql.MaxOperationCost (default 0, no limit). The
+ * cost is capped at Long.MAX_VALUE.
+ */
+@EFapsUUID("07d0b8ec-ea42-4dc0-b9e1-23cb9e235c46")
+@EFapsApplication("eFaps-GraphQL")
+public final class QueryCost
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueryCost.class);
+
+    private static final long MAX_OPERATION_COST = Long.getLong("org.efaps.graphql.MaxOperationCost", 0);
+
+    /** Errors of the rejected root fields by their result key. */
+    private final Map<String, String> errors = new HashMap<>();
+
+    private long cost;
+
+    private int depth;
+
+    /** Error of the operation, rejects all root fields. */
+    private String error;
+
+    private QueryCost()
+    {
+    }
+
+    public long getCost()
+    {
+        return cost;
+    }
+
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    public boolean isRejected()
+    {
+        return error != null || !errors.isEmpty();
+    }
+
+    /**
+     * @return an error message if the root field with the given result key
+     *         is rejected, else null
+     */
+    public String getError(final String resultKey)
+    {
+        return error == null ? errors.get(resultKey) : error;
+    }
+
+    /**
+     * @return the cost of the operation of the environment
+     */
+    public static QueryCost eval(final DataFetchingEnvironment environment)
+    {
+        final var ret = new QueryCost();
+        final var operation = ExecutableNormalizedOperationFactory.createExecutableNormalizedOperation(
+                        environment.getGraphQLSchema(), environment.getOperationDefinition(),
+                        environment.getFragmentsByName(), CoercedVariables.of(environment.getVariables()));
+        for (final var field : operation.getTopLevelFields()) {
+            final var properties = getProperties(environment, field);
+            final var weights = new Weights(properties);
+            final var fieldDepth = new int[] { 1 };
+            final var childCost = eval(environment, weights, field.getChildren(), 1, fieldDepth);
+            final var fieldCost = add(weights.field, isList(environment, field)
+                            ? multiply(childCost, weights.listFactor) : childCost);
+            LOG.debug("Cost of {}: {}, depth: {}", field.getResultKey(), fieldCost, fieldDepth[0]);
+            final var fieldError = check(properties, fieldCost, fieldDepth[0]);
+            if (fieldError != null) {
+                ret.errors.put(field.getResultKey(), fieldError);
+            }
+            ret.cost = add(ret.cost, fieldCost);
+            ret.depth = Math.max(ret.depth, fieldDepth[0]);
+        }
+        if (MAX_OPERATION_COST > 0 && ret.cost > MAX_OPERATION_COST) {
+            ret.error = String.format("Operation cost %s exceeds the limit of %s", ret.cost, MAX_OPERATION_COST);
+        }
+        return ret;
+    }
+
+    private static long eval(final DataFetchingEnvironment environment,
+                             final Weights weights,
+                             final List<ExecutableNormalizedField> fields,
+                             final int level,
+                             final int[] depth)
+    {
+        depth[0] = Math.max(depth[0], level);
+        long ret = 0;
+        for (final var field : fields) {
+            long fieldCost = weights.field;
+            final var props = getDataFetcherProperties(environment, field);
+            if (props != null) {
+                fieldCost = add(fieldCost, weights.dataFetcher);
+                if (props.keySet().stream().anyMatch(key -> key.startsWith("LinkFrom"))) {
+                    fieldCost = add(fieldCost, weights.linkFrom);
+                }
+            }
+            if (!field.getChildren().isEmpty()) {
+                final var childCost = eval(environment, weights, field.getChildren(), level + 1, depth);
+                fieldCost = add(fieldCost, isList(environment, field)
+                                ? multiply(childCost, weights.listFactor) : childCost);
+            }
+            ret = add(ret, fieldCost);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the properties of the DataFetcher of the field, null if the
+     *         field has none
+     */
+    private static Map<String, String> getDataFetcherProperties(final DataFetchingEnvironment environment,
+                                                                final ExecutableNormalizedField field)
+    {
+        Map<String, String> ret = null;
+        for (final var typeName : field.getObjectTypeNames()) {
+            if (environment.getGraphQLSchema().getCodeRegistry()
+                            .hasDataFetcher(FieldCoordinates.coordinates(typeName, field.getName()))) {
+                ret = environment.getGraphQlContext()
+                                .getOrDefault(DataFetcherProvider.contextKey(typeName, field.getName()), Map.of());
+                break;
+            }
+        }
+        return ret;
+    }
+
+    private static Properties getProperties(final DataFetchingEnvironment environment,
+                                            final ExecutableNormalizedField field)
+    {
+        final var ret = new Properties();
+        final var props = getDataFetcherProperties(environment, field);
+        if (props != null) {
+            ret.putAll(props);
+        }
+        return ret;
+    }
+
+    private static boolean isList(final DataFetchingEnvironment environment,
+                                  final ExecutableNormalizedField field)
+    {
+        return GraphQLTypeUtil.unwrapNonNull(field.getType(environment.getGraphQLSchema())) instanceof GraphQLList;
+    }
+
+    /**
+     * @return the sum, capped at Long.MAX_VALUE
+     */
+    public static long add(final long value1,
+                           final long value2)
+    {
+        try {
+            return Math.addExact(value1, value2);
+        } catch (final ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @return the product, capped at Long.MAX_VALUE
+     */
+    public static long multiply(final long value1,
+                                final long value2)
+    {
+        try {
+            return Math.multiplyExact(value1, value2);
+        } catch (final ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @return an error message if the cost or the depth exceed the limits
+     *         given by the properties MaxCost and MaxDepth, else null
+     */
+    private static String check(final Properties properties,
+                                final long cost,
+                                final int depth)
+    {
+        String ret = null;
+        final var maxCost = properties.getProperty("MaxCost");
+        final var maxDepth = properties.getProperty("MaxDepth");
+        if (maxDepth != null && depth > Integer.parseInt(maxDepth)) {
+            ret = String.format("Query depth %s exceeds the limit of %s", depth, maxDepth);
+        } else if (maxCost != null && cost > Long.parseLong(maxCost)) {
+            ret = String.format("Query cost %s exceeds the limit of %s", cost, maxCost);
+        }
+        return ret;
+    }
+
+    private static final class Weights
+    {
+
+        private final long field;
+
+        private final long dataFetcher;
+
+        private final long linkFrom;
+
+        private final long listFactor;
+
+        private Weights(final Properties properties)
+        {
+            field = Long.parseLong(properties.getProperty("CostWeightField", "1"));
+            dataFetcher = Long.parseLong(properties.getProperty("CostWeightDataFetcher", "10"));
+            linkFrom = Long.parseLong(properties.getProperty("CostWeightLinkFrom", "20"));
+            listFactor = Long.parseLong(properties.getProperty("CostListFactor", "10"));
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.efaps.admin.datamodel.Type;
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.admin.user.Company;
+import org.efaps.db.Context;
+import org.efaps.db.Instance;
+import org.efaps.eql.EQL;
+import org.efaps.util.EFapsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the operations slower than the threshold as GraphQL_QueryLog
+ * objects. The threshold in milliseconds is set with the system property
+ * org.efaps.graphql.QueryLogThreshold (default 1000, 0 disables the log).
+ * An operation ends with the transaction of the request, see Operation. The
+ * request thread only hands the entry over, it is written by the common
+ * ForkJoinPool in its own transaction, so no thread is owned by this class
+ * and nothing is left behind by a reload of the ESJP. If too many entries
+ * are pending the entry is dropped. The objects belong to the company of
+ * the request. Only the newest entries per company are kept, the number is
+ * set with the system property org.efaps.graphql.QueryLogMaxEntries
+ * (default 10000).
+ */
+@EFapsUUID("82815afb-1e88-4f60-a9ae-4baad584798c")
+@EFapsApplication("eFaps-GraphQL")
+public final class QueryLog
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueryLog.class);
+
+    public static final String TYPE = "GraphQL_QueryLog";
+
+    /** Length of the STRING_LONG columns. */
+    static final int MAX_LENGTH = 4096;
+
+    static final int MAX_VARIABLES_LENGTH = 1024;
+
+    private static final long THRESHOLD = Long.getLong("org.efaps.graphql.QueryLogThreshold", 1000);
+
+    private static final int MAX_ENTRIES = Integer.getInteger("org.efaps.graphql.QueryLogMaxEntries", 10000);
+
+    /** The older entries are removed with every n-th write. */
+    private static final int PRUNE_INTERVAL = 100;
+
+    /** Entries handed over and not written yet. */
+    private static final int MAX_PENDING = 1000;
+
+    private static final AtomicInteger PENDING = new AtomicInteger();
+
+    private static final AtomicInteger WRITTEN = new AtomicInteger();
+
+    private QueryLog()
+    {
+    }
+
+    public static boolean isEnabled()
+    {
+        return THRESHOLD > 0;
+    }
+
+    /**
+     * Hands the operation over to the common pool if it was slower than the
+     * threshold.
+     */
+    public static void capture(final Operation operation)
+    {
+        final var duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - operation.getStartNanos());
+        if (duration >= THRESHOLD) {
+            if (operation.getCompanyId() == null) {
+                LOG.warn("No company in context, slow query is not logged");
+            } else if (PENDING.incrementAndGet() > MAX_PENDING) {
+                PENDING.decrementAndGet();
+                LOG.warn("Too many pending query log entries, entry is dropped");
+            } else {
+                final var entry = operation.toEntry(duration);
+                LOG.debug("Logging slow query {} with {}ms", entry.hash(), duration);
+                ForkJoinPool.commonPool().execute(() -> {
+                    try {
+                        write(operation.getUserName(), operation.getCompanyId(), entry);
+                    } finally {
+                        PENDING.decrementAndGet();
+                    }
+                });
+            }
+        }
+    }
+
+    protected static void write(final String userName,
+                                final long companyId,
+                                final Entry entry)
+    {
+        try {
+            Context.begin(userName);
+            Context.getThreadContext().setCompany(Company.get(companyId));
+            EQL.builder().insert(Type.get(TYPE))
+                            .set("Company", String.valueOf(companyId))
+                            .set("Hash", entry.hash())
+                            .set("Operation", entry.operation())
+                            .set("Query", entry.query())
+                            .set("Variables", entry.variables())
+                            .set("Duration", String.valueOf(entry.duration()))
+                            .set("Statements", String.valueOf(entry.statements()))
+                            .set("Cost", String.valueOf(entry.cost()))
+                            .set("Breakdown", entry.breakdown())
+                            .execute();
+            if (WRITTEN.incrementAndGet() % PRUNE_INTERVAL == 0) {
+                prune(companyId);
+            }
+            Context.commit();
+        } catch (final EFapsException e) {
+            LOG.error("Could not write query log", e);
+        } finally {
+            try {
+                if (Context.isTMActive()) {
+                    Context.rollback();
+                }
+            } catch (final EFapsException e) {
+                LOG.error("Could not rollback query log", e);
+            }
+        }
+    }
+
+    /**
+     * Deletes the entries of the company older than the newest MAX_ENTRIES.
+     */
+    protected static void prune(final long companyId)
+        throws EFapsException
+    {
+        final var print = EQL.builder().print().query(TYPE)
+                        .where()
+                        .attribute("Company").eq(String.valueOf(companyId))
+                        .select();
+        print.attribute("ID").as("id");
+        print.orderBy("id", true);
+        print.limit(MAX_ENTRIES + 1);
+        final var eval = print.evaluate();
+        int count = 0;
+        Long lastId = null;
+        while (eval.next()) {
+            count++;
+            lastId = eval.get("id");
+        }
+        if (count > MAX_ENTRIES) {
+            final var outdated = new ArrayList<Instance>();
+            final var outdatedEval = EQL.builder().print().query(TYPE)
+                            .where()
+                            .attribute("Company").eq(String.valueOf(companyId))
+                            .and()
+                            .attribute("ID").less(String.valueOf(lastId + 1))
+                            .select().instance()
+                            .evaluate();
+            while (outdatedEval.next()) {
+                outdated.add(outdatedEval.inst());
+            }
+            LOG.debug("Deleting {} query log entries", outdated.size());
+            EQL.builder().delete(outdated.toArray(new Instance[outdated.size()])).stmt().execute();
+        }
+    }
+
+    /**
+     * @return the shape of the variables: the values replaced by their type
+     */
+    protected static String shape(final Object value)
+    {
+        final String ret;
+        if (value instanceof final Map<?, ?> map) {
+            final var entries = new ArrayList<String>();
+            for (final var entry : map.entrySet()) {
+                entries.add(entry.getKey() + ":" + shape(entry.getValue()));
+            }
+            ret = "{" + String.join(",", entries) + "}";
+        } else if (value instanceof final List<?> list) {
+            ret = "[" + (list.isEmpty() ? "" : shape(list.get(0))) + "]";
+        } else {
+            ret = value == null ? "null" : value.getClass().getSimpleName();
+        }
+        return ret;
+    }
+
+    public record Entry(String hash, String operation, String query, String variables, long duration,
+                        long statements, long cost, String breakdown)
+    {
+    }
+}
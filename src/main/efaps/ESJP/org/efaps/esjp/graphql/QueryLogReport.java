@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.text.StringEscapeUtils;
+import org.efaps.admin.event.Parameter;
+import org.efaps.admin.event.Return;
+import org.efaps.admin.event.Return.ReturnValues;
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.db.Context;
+import org.efaps.eql.EQL;
+import org.efaps.esjp.ci.CIFormGraphQL;
+import org.efaps.util.EFapsException;
+
+/**
+ * Top executions of the GraphQL_QueryLog grouped by the hash of the
+ * normalized query, the most expensive in total first. Only the newest
+ * entries of the company of the user are read.
+ */
+@EFapsUUID("4350cf3b-2213-47db-a289-3c0c1dff628d")
+@EFapsApplication("eFaps-GraphQL")
+public class QueryLogReport
+{
+
+    private static final int TOP = 25;
+
+    private static final int MAX_ROWS = 10000;
+
+    public Return top(final Parameter parameter)
+        throws EFapsException
+    {
+        final var stats = new LinkedHashMap<String, Stats>();
+        final var company = Context.getThreadContext().getCompany();
+        final var print = EQL.builder().print().query(QueryLog.TYPE)
+                        .where()
+                        .attribute("Company").eq(String.valueOf(company == null ? 0 : company.getId()))
+                        .select();
+        print.attribute("Hash").as("hash");
+        print.attribute("Operation").as("operation");
+        print.attribute("Query").as("query");
+        print.attribute("Duration").as("duration");
+        print.attribute("Statements").as("statements");
+        print.attribute("Created").as("created");
+        print.orderBy("created", true);
+        print.limit(MAX_ROWS);
+        final var eval = print.evaluate();
+        while (eval.next()) {
+            final String hash = eval.get("hash");
+            final var stat = stats.computeIfAbsent(hash, k -> new Stats());
+            if (stat.count == 0) {
+                stat.operation = eval.get("operation");
+                stat.query = eval.get("query");
+            }
+            final Number duration = eval.get("duration");
+            final Number statements = eval.get("statements");
+            stat.count++;
+            stat.total = stat.total + duration.longValue();
+            stat.max = Math.max(stat.max, duration.longValue());
+            stat.statements = stat.statements + statements.longValue();
+        }
+        final var sorted = new ArrayList<>(stats.entrySet());
+        sorted.sort(Comparator.comparingLong((final Map.Entry<String, Stats> entry) -> entry.getValue().total)
+                        .reversed());
+        final var table = new StringBuilder().append(String.format("%-16s %-30s %8s %10s %10s %10s %s%n",
+                        "Hash", "Operation", "Count", "Avg ms", "Max ms", "Avg stmts", "Query"));
+        for (final var entry : sorted.subList(0, Math.min(TOP, sorted.size()))) {
+            final var stat = entry.getValue();
+            table.append(String.format("%-16s %-30s %8d %10d %10d %10d %s%n",
+                            StringUtils.left(entry.getKey(), 16), StringUtils.defaultString(stat.operation),
+                            stat.count, stat.total / stat.count, stat.max, stat.statements / stat.count,
+                            StringUtils.abbreviate(stat.query, 120)));
+        }
+        final Return ret = new Return();
+        ret.put(ReturnValues.SNIPLETT, new StringBuilder()
+                        .append("document.getElementsByName('")
+                        .append(CIFormGraphQL.GraphQL_QueryLogTopForm.result.name)
+                        .append("')[0].innerHTML=\"")
+                        .append("<style> .eFapsForm .unlabeled .field { display: inline;} ")
+                        .append(" #queryLogTop{ max-height: 500px; overflow: auto; width: 100%;")
+                        .append(" background-color: lightgray; padding: 5px 10px;}")
+                        .append("</style><pre id='queryLogTop'>")
+                        .append(StringEscapeUtils.escapeEcmaScript(StringEscapeUtils.escapeHtml4(table.toString())))
+                        .append("</pre>\";")
+                        .toString());
+        return ret;
+    }
+
+    private static final class Stats
+    {
+
+        private String operation;
+
+        private String query;
+
+        private long count;
+
+        private long total;
+
+        private long max;
+
+        private long statements;
+    }
+}
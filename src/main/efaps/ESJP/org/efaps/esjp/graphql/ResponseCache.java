@@ -0,0 +1,235 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.efaps.admin.datamodel.Type;
+import org.efaps.admin.event.EventType;
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.db.Context;
+import org.efaps.db.Instance;
+import org.efaps.util.EFapsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import graphql.schema.DataFetchingEnvironment;
+import jakarta.transaction.RollbackException;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.SystemException;
+import jakarta.transaction.Transaction;
+
+/**
+ * Opt-in cache of the results of BaseDataFetcher, enabled per field with
+ * the property CacheTTL (seconds). The property CacheScope (USER, default,
+ * or COMPANY) defines if the results are shared by the users of a company.
+ * COMPANY only applies if none of the queried types has an access check,
+ * otherwise a user could be served the result of another one; the entries
+ * are kept per user then. The entries are evicted by the mutations that
+ * write one of the queried types, including the attribute sets,
+ * classifications and linked types of their input, at once and again after
+ * the transaction is completed, so that no
+ * result read while it was open is kept. They are limited to
+ * org.efaps.graphql.ResponseCacheRows rows in total (system property,
+ * default 100000), least recently used first. Values read through links from
+ * other types are only refreshed by the TTL. Fields without the property Type
+ * are not cached, no mutation could evict them.
+ */
+@EFapsUUID("17b7ca68-80f7-489d-b923-d0035c6381e2")
+@EFapsApplication("eFaps-GraphQL")
+public final class ResponseCache
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResponseCache.class);
+
+    private static final int MAX_ROWS = Integer.getInteger("org.efaps.graphql.ResponseCacheRows", 100000);
+
+    private static final Map<String, Entry> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Types written by transactions that are not completed yet. */
+    private static final Map<Transaction, Set<Type>> PENDING = new ConcurrentHashMap<>();
+
+    private static int rows;
+
+    private ResponseCache()
+    {
+    }
+
+    public static String key(final DataFetchingEnvironment environment,
+                             final FetchPlan plan)
+        throws EFapsException
+    {
+        final var ret = new StringBuilder()
+                        .append(FetchPlan.key(environment.getExecutionStepInfo().getObjectType().getName(),
+                                        environment.getFieldDefinition().getName(), environment.getSelectionSet()))
+                        .append(environment.getArguments());
+        if (environment.getSource() instanceof final Map<?, ?> source
+                        && source.get("currentInstance") instanceof final Instance instance) {
+            ret.append('|').append(instance.getOid());
+        }
+        final var context = Context.getThreadContext();
+        ret.append('|').append(context.getCompany() == null ? "" : context.getCompany().getId());
+        if (!"COMPANY".equalsIgnoreCase(plan.getProperties().getProperty("CacheScope"))
+                        || hasAccessCheck(plan.getTypes())) {
+            ret.append('|').append(context.getPerson() == null ? "" : context.getPerson().getId());
+        }
+        return ret.toString();
+    }
+
+    /**
+     * @return true if one of the types is unknown or has an access check
+     */
+    private static boolean hasAccessCheck(final String[] typeNames)
+        throws EFapsException
+    {
+        boolean ret = false;
+        for (final var typeName : typeNames) {
+            final var type = Type.get(typeName);
+            if (type == null || type.hasEvents(EventType.ACCESSCHECK)) {
+                ret = true;
+                break;
+            }
+        }
+        return ret;
+    }
+
+    public static synchronized Entry get(final String key)
+    {
+        var ret = CACHE.get(key);
+        if (ret != null && ret.expires() < System.currentTimeMillis()) {
+            remove(key);
+            ret = null;
+        }
+        return ret;
+    }
+
+    public static synchronized void put(final String key,
+                                        final Entry entry)
+    {
+        remove(key);
+        CACHE.put(key, entry);
+        rows += entry.values().size();
+        final var iter = CACHE.entrySet().iterator();
+        while (rows > MAX_ROWS && iter.hasNext()) {
+            rows -= iter.next().getValue().values().size();
+            iter.remove();
+        }
+    }
+
+    /**
+     * Removes the entries that queried the given type or one of its parents,
+     * now and after the current transaction is completed.
+     */
+    public static void evict(final Type type)
+    {
+        removeType(type);
+        try {
+            final var transaction = Context.getTransactionManager().getTransaction();
+            if (transaction != null) {
+                final var types = PENDING.computeIfAbsent(transaction, key -> ConcurrentHashMap.newKeySet());
+                if (types.isEmpty()) {
+                    transaction.registerSynchronization(new AfterCompletion(transaction));
+                }
+                types.add(type);
+            }
+        } catch (final SystemException | RollbackException e) {
+            LOG.error("Could not register the eviction after the transaction", e);
+        }
+    }
+
+    private static synchronized void removeType(final Type type)
+    {
+        if (!CACHE.isEmpty()) {
+            final Set<String> typeNames = new HashSet<>();
+            var current = type;
+            while (current != null) {
+                typeNames.add(current.getName());
+                current = current.getParentType();
+            }
+            final var iter = CACHE.values().iterator();
+            while (iter.hasNext()) {
+                final var entry = iter.next();
+                if (Arrays.stream(entry.types()).anyMatch(typeNames::contains)) {
+                    rows -= entry.values().size();
+                    iter.remove();
+                }
+            }
+            LOG.debug("Evicted responses for {}", type);
+        }
+    }
+
+    public static synchronized void clearCache()
+    {
+        CACHE.clear();
+        rows = 0;
+    }
+
+    private static void remove(final String key)
+    {
+        final var entry = CACHE.remove(key);
+        if (entry != null) {
+            rows -= entry.values().size();
+        }
+    }
+
+    /**
+     * @param values the rows, used to register the instances for the child fields
+     * @param data the data returned by the field
+     * @param types the queried types
+     * @param expires time in milliseconds
+     */
+    public record Entry(List<Map<String, Object>> values, Object data, String[] types, long expires)
+    {
+    }
+
+    /**
+     * Evicts the types written by a transaction once it is completed. It is
+     * done on rollback too, the transaction might have cached what it wrote.
+     */
+    private static final class AfterCompletion
+        implements Synchronization
+    {
+
+        private final Transaction transaction;
+
+        private AfterCompletion(final Transaction transaction)
+        {
+            this.transaction = transaction;
+        }
+
+        @Override
+        public void beforeCompletion()
+        {
+            // nothing to do before the commit
+        }
+
+        @Override
+        public void afterCompletion(final int status)
+        {
+            final var types = PENDING.remove(transaction);
+            if (types != null) {
+                types.forEach(ResponseCache::removeType);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.Collection;
+
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.db.Instance;
+import org.efaps.db.stmt.selection.Evaluator;
+import org.efaps.eql.EQL;
+import org.efaps.eql.builder.Insert;
+import org.efaps.eql.builder.Print;
+import org.efaps.eql.builder.Update;
+import org.efaps.util.EFapsException;
+
+/**
+ * Executes the EQL statements of the DataFetchers and mutations. Each
+ * statement is counted for the field currently fetched by the thread, see
+ * FieldMetrics, so the call sites do not have to count themselves.
+ */
+@EFapsUUID("da6233a0-ed9c-4a80-b0ca-20922db50e07")
+@EFapsApplication("eFaps-GraphQL")
+public final class Statements
+{
+
+    private Statements()
+    {
+    }
+
+    public static Evaluator evaluate(final Print print)
+        throws EFapsException
+    {
+        FieldMetrics.statement();
+        return print.evaluate();
+    }
+
+    public static Instance execute(final Insert insert)
+        throws EFapsException
+    {
+        FieldMetrics.statement();
+        return insert.execute();
+    }
+
+    public static void execute(final Update update)
+        throws EFapsException
+    {
+        FieldMetrics.statement();
+        update.execute();
+    }
+
+    public static void delete(final Collection<Instance> instances)
+        throws EFapsException
+    {
+        FieldMetrics.statement();
+        EQL.builder().delete(instances.toArray(new Instance[instances.size()])).stmt().execute();
+    }
+}
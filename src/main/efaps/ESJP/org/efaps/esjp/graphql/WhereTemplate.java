@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.IllegalFormatException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.eql2.Comparison;
+import org.efaps.eql2.EQL2;
+import org.efaps.eql2.IWhereElementTerm;
+import org.efaps.eql2.impl.PrintQueryStatement;
+import org.efaps.graphql.definition.ArgumentDef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A where element parsed once from its EQL representation. Instances are
+ * cached by statement and dropped with the other GraphQL caches.
+ */
+@EFapsUUID("8080eccf-89cc-43da-9885-bdb504e314f3")
+@EFapsApplication("eFaps-GraphQL")
+public final class WhereTemplate
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(WhereTemplate.class);
+
+    /** Value used to fill the placeholder of an argument where statement. */
+    private static final String PLACEHOLDER = "0";
+
+    private static final Map<String, WhereTemplate> ARGUMENTS = new ConcurrentHashMap<>();
+
+    private static final Map<String, WhereTemplate> ELEMENTS = new ConcurrentHashMap<>();
+
+    private final String attribute;
+
+    private final Comparison comparison;
+
+    private final String value;
+
+    private WhereTemplate(final String whereElement)
+    {
+        LOG.debug("Parsing where element: {}", whereElement);
+        final var stmt = (PrintQueryStatement) EQL2.parse("print query type TYPE where "
+                        + whereElement
+                        + " select attribute[OID]");
+        final var elementTerm = ((IWhereElementTerm) stmt.getQuery().getWhere().getTerms(0)).element();
+        attribute = elementTerm.getAttribute();
+        comparison = elementTerm.getComparison();
+        value = elementTerm.getValues(0);
+    }
+
+    public String getAttribute()
+    {
+        return attribute;
+    }
+
+    public Comparison getComparison()
+    {
+        return comparison;
+    }
+
+    /**
+     * @return the value as given in the where element, meaningless for
+     *         templates of arguments
+     */
+    public String getValue()
+    {
+        return value;
+    }
+
+    /**
+     * @param argumentDef definition with the where statement
+     * @param argumentValue value of the argument, used only if the where
+     *            statement can not be formatted with the placeholder (e.g.
+     *            %d). Such a template is parsed for each call and not cached,
+     *            as its structure may depend on the value.
+     */
+    public static WhereTemplate get(final ArgumentDef argumentDef,
+                                    final Object argumentValue)
+    {
+        var ret = ARGUMENTS.computeIfAbsent(argumentDef.getWhereStmt(), whereStmt -> {
+            WhereTemplate template = null;
+            try {
+                template = new WhereTemplate(String.format(whereStmt, PLACEHOLDER));
+            } catch (final IllegalFormatException e) {
+                LOG.debug("Placeholder does not fit {}, using the argument value", whereStmt);
+            }
+            return template;
+        });
+        if (ret == null) {
+            ret = new WhereTemplate(String.format(argumentDef.getWhereStmt(), argumentValue));
+        }
+        return ret;
+    }
+
+    public static WhereTemplate get(final String whereElement)
+    {
+        return ELEMENTS.computeIfAbsent(whereElement, WhereTemplate::new);
+    }
+
+    public static void clearCache()
+    {
+        ARGUMENTS.clear();
+        ELEMENTS.clear();
+    }
+}
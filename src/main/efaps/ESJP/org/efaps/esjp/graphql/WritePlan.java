@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.efaps.admin.datamodel.AttributeSet;
+import org.efaps.admin.datamodel.Classification;
+import org.efaps.admin.datamodel.Type;
+import org.efaps.admin.program.esjp.EFapsApplication;
+import org.efaps.admin.program.esjp.EFapsUUID;
+import org.efaps.graphql.definition.FieldDef;
+import org.efaps.graphql.definition.ObjectDef;
+import org.efaps.util.EFapsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import graphql.schema.GraphQLInputObjectType;
+import graphql.schema.GraphQLList;
+import graphql.schema.GraphQLNonNull;
+import graphql.schema.GraphQLScalarType;
+
+/**
+ * The resolved mapping of a GraphQLInputObjectType to the selects of its
+ * ObjectDef, the parsed write action of each select and the attribute sets
+ * and classifications they write to. All are resolved once and reused by
+ * all mutations, so that a mutation only has to apply them to its input.
+ */
+@EFapsUUID("7fd40928-b9d8-432a-a936-a2be4fd93f57")
+@EFapsApplication("eFaps-GraphQL")
+public final class WritePlan
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(WritePlan.class);
+
+    private static final Map<String, WritePlan> CACHE = new ConcurrentHashMap<>();
+
+    private static final Map<String, Action> ACTIONS = new ConcurrentHashMap<>();
+
+    private static final Map<String, Type> TYPES = new ConcurrentHashMap<>();
+
+    private final long version;
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    private WritePlan(final long version,
+                      final GraphQLInputObjectType inputObjectType,
+                      final ObjectDef objectDef,
+                      final Function<FieldDef, String> keyFunction)
+    {
+        this.version = version;
+        for (final var fieldEntry : objectDef.getFields().entrySet()) {
+            final var fieldName = fieldEntry.getKey();
+            final var inputField = inputObjectType.getField(fieldName);
+            if (inputField != null) {
+                final var key = keyFunction.apply(fieldEntry.getValue());
+                final var inputFieldType = inputField.getType();
+                // if it is a simple type
+                if (inputFieldType instanceof GraphQLScalarType || inputFieldType instanceof GraphQLNonNull) {
+                    entries.add(new Entry(fieldName, key, Kind.VALUE, null));
+                }
+                if (inputFieldType instanceof final GraphQLList listType) {
+                    if (listType.getWrappedType() instanceof final GraphQLInputObjectType wrappedType) {
+                        entries.add(new Entry(fieldName, key, Kind.LIST, wrappedType));
+                    } else {
+                        LOG.error("Unsupported list type for field {}", fieldName);
+                    }
+                }
+                if (inputFieldType instanceof final GraphQLInputObjectType objectType) {
+                    entries.add(new Entry(fieldName, key, Kind.OBJECT, objectType));
+                }
+            }
+        }
+    }
+
+    public List<Entry> getEntries()
+    {
+        return entries;
+    }
+
+    /**
+     * @param version version of Caching the request started with
+     * @param mutationClass class of the mutation, part of the key because
+     *            the key function can be overridden
+     * @param inputObjectType input type the plan is for
+     * @param objectDef definition of the input type
+     * @param keyFunction evaluates the key of a field
+     * @return the plan
+     */
+    public static WritePlan get(final long version,
+                                final Class<?> mutationClass,
+                                final GraphQLInputObjectType inputObjectType,
+                                final ObjectDef objectDef,
+                                final Function<FieldDef, String> keyFunction)
+    {
+        final var cacheKey = mutationClass.getName() + ":" + inputObjectType.getName();
+        var ret = CACHE.get(cacheKey);
+        if (ret == null || ret.version != version) {
+            ret = new WritePlan(version, inputObjectType, objectDef, keyFunction);
+            // a plan of a request that started before the cache was cleared is not kept
+            if (version == Caching.getVersion()) {
+                CACHE.put(cacheKey, ret);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param select select used as key in the values of a mutation
+     * @return the parsed action for the select
+     */
+    public static Action action(final String select)
+    {
+        return ACTIONS.computeIfAbsent(select, Action::parse);
+    }
+
+    /**
+     * @return the attribute set of the parent type, resolved once
+     */
+    public static AttributeSet attributeSet(final Type parentType,
+                                            final String name)
+        throws EFapsException
+    {
+        final var key = "attributeset|" + parentType.getName() + "|" + name;
+        var ret = TYPES.get(key);
+        if (ret == null) {
+            ret = AttributeSet.find(parentType.getName(), name);
+            TYPES.put(key, ret);
+        }
+        return (AttributeSet) ret;
+    }
+
+    /**
+     * @return the classification, resolved once
+     */
+    public static Classification classification(final String name)
+        throws EFapsException
+    {
+        final var key = "class|" + name;
+        var ret = TYPES.get(key);
+        if (ret == null) {
+            ret = Classification.get(name);
+            TYPES.put(key, ret);
+        }
+        return (Classification) ret;
+    }
+
+    public static void clearCache()
+    {
+        CACHE.clear();
+        ACTIONS.clear();
+        TYPES.clear();
+    }
+
+    public enum Kind
+    {
+        /** Scalar value taken as it is. */
+        VALUE,
+        /** Input object evaluated with its own plan. */
+        OBJECT,
+        /** List of input objects evaluated with their own plan. */
+        LIST;
+    }
+
+    public record Entry(String fieldName, String key, Kind kind, GraphQLInputObjectType inputObjectType)
+    {
+    }
+
+    public enum ActionType
+    {
+        /** attribute[Name]: set the attribute. */
+        ATTRIBUTE,
+        /** linkto[Name].attribute[Name]: set the link to the resolved instance. */
+        LINKTO,
+        /** attributeset[Name]: write the list of attribute set entries. */
+        ATTRIBUTESET,
+        /** class[Name]: write the classification. */
+        CLASS,
+        /** Anything else, ignored on write. */
+        NONE;
+    }
+
+    public record Action(ActionType type, String name, String select)
+    {
+
+        static Action parse(final String select)
+        {
+            final var field = select.trim();
+            final Action ret;
+            if (field.startsWith("attribute[")) {
+                ret = new Action(ActionType.ATTRIBUTE, field.substring(10, field.length() - 1), field);
+            } else if (field.startsWith("linkto[")) {
+                ret = new Action(ActionType.LINKTO, null, field);
+            } else if (field.startsWith("attributeset[")) {
+                ret = new Action(ActionType.ATTRIBUTESET, field.substring(13, field.length() - 1), field);
+            } else if (field.startsWith("class[")) {
+                ret = new Action(ActionType.CLASS, field.substring(6, field.length() - 1), field);
+            } else {
+                ret = new Action(ActionType.NONE, null, field);
+            }
+            return ret;
+        }
+    }
+}
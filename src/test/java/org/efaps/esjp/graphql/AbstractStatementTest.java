@@ -0,0 +1,321 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.efaps.admin.datamodel.Type;
+import org.efaps.db.Context;
+import org.efaps.db.Instance;
+import org.efaps.db.stmt.selection.Evaluator;
+import org.efaps.eql.EQL;
+import org.efaps.graphql.definition.FieldDef;
+import org.efaps.graphql.definition.ObjectDef;
+import org.efaps.graphql.providers.DataFetcherProvider;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+
+/**
+ * Runs GraphQL operations against the DataFetchers and mutations of this
+ * application without a database and counts the EQL statements they
+ * execute. EQL.builder() is replaced by stubs: each evaluate of a print and
+ * each execute of an insert, update or delete counts as one statement, so
+ * call sites that bypass Statements are counted too. Every query returns
+ * {@link #rows} rows; the attribute of a LinkFrom batch links row n to the
+ * parent with id n.
+ * <p>
+ * The counts are bounds at the level of the stubs: they count EQL
+ * statements, not the SQL statements or round trips eFaps runs for them,
+ * e.g. for access checks, attribute sets or the caches of the kernel.
+ * <p>
+ * The schema is a small order model: orders with positions linked by
+ * OrderLink, and mutations to create, update and delete orders.
+ */
+public abstract class AbstractStatementTest
+{
+
+    private static final Map<String, Type> TYPES = new ConcurrentHashMap<>();
+
+    private static final String SCHEMA = """
+                    type Query {
+                      orders: [Order]
+                    }
+                    type Order {
+                      oid: String
+                      name: String
+                      date: String
+                      positions: [Position]
+                    }
+                    type Position {
+                      oid: String
+                      quantity: String
+                      product: String
+                    }
+                    input OrderInput {
+                      name: String
+                      date: String
+                    }
+                    type Mutation {
+                      createOrder(input: OrderInput): String
+                      updateOrder(oid: String, input: OrderInput): String
+                      updateOrders(input: OrderInput): Int
+                      deleteOrders: Int
+                    }
+                    """;
+
+    /** Rows returned by each query. */
+    private int rows;
+
+    private final List<String> statements = new ArrayList<>();
+
+    private final Map<String, Object> context = new HashMap<>();
+
+    private MockedStatic<EQL> eql;
+
+    private MockedStatic<Type> type;
+
+    private MockedStatic<Instance> instance;
+
+    private MockedStatic<Context> efapsContext;
+
+    @BeforeClass
+    public void setUpCaching()
+    {
+        // no database to announce invalidations to
+        Caching.setBroadcaster(new LocalInvalidationBroadcaster());
+    }
+
+    @BeforeMethod
+    public void setUpEQL()
+    {
+        rows = 3;
+        statements.clear();
+        context.clear();
+        new Caching().clearCache();
+        context.put("Order", objectDef("oid", "oid", "name", "attribute[Name]", "date", "attribute[Date]",
+                        "positions", null));
+        context.put("Position", objectDef("oid", "oid", "quantity", "attribute[Quantity]", "product",
+                        "linkto[ProductLink].attribute[Name]"));
+        context.put("OrderInput", objectDef("name", "attribute[Name]", "date", "attribute[Date]"));
+        eql = Mockito.mockStatic(EQL.class);
+        eql.when(EQL::builder).thenAnswer(invocation -> Mockito.mock(invocation.getMethod().getReturnType(),
+                        this::answer));
+        type = Mockito.mockStatic(Type.class);
+        type.when(() -> Type.get(Mockito.anyString())).thenAnswer(invocation -> type(invocation.getArgument(0)));
+        type.when(() -> Type.get(Mockito.any(UUID.class)))
+                        .thenAnswer(invocation -> type(invocation.getArgument(0).toString()));
+        instance = Mockito.mockStatic(Instance.class);
+        instance.when(() -> Instance.get(Mockito.anyString())).thenAnswer(invocation -> instance(1));
+        efapsContext = Mockito.mockStatic(Context.class, Mockito.RETURNS_MOCKS);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDownEQL()
+    {
+        efapsContext.close();
+        instance.close();
+        type.close();
+        eql.close();
+    }
+
+    /**
+     * @param rows rows returned by each query
+     */
+    protected void setRows(final int rows)
+    {
+        this.rows = rows;
+    }
+
+    /**
+     * Registers the properties of the DataFetcher of a field.
+     */
+    protected void properties(final String typeName,
+                              final String fieldName,
+                              final String... keyValues)
+    {
+        final var properties = new HashMap<String, String>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            properties.put(keyValues[i], keyValues[i + 1]);
+        }
+        context.put(DataFetcherProvider.contextKey(typeName, fieldName), properties);
+    }
+
+    /**
+     * Executes the operation and asserts that it succeeded.
+     *
+     * @return the number of EQL statements
+     */
+    protected int execute(final String operation)
+    {
+        final var result = run(operation);
+        Assert.assertTrue(result.getErrors().isEmpty(), result.getErrors().toString());
+        return statements.size();
+    }
+
+    /**
+     * @return the result of the operation
+     */
+    protected ExecutionResult run(final String operation)
+    {
+        final var wiring = RuntimeWiring.newRuntimeWiring()
+                        .type("Query", builder -> builder.dataFetcher("orders", new BaseDataFetcher()))
+                        .type("Order", builder -> builder.dataFetcher("positions", new BaseDataFetcher()))
+                        .type("Mutation", builder -> builder
+                                        .dataFetcher("createOrder", new BaseCreateMutation())
+                                        .dataFetcher("updateOrder", new BaseUpdateMutation())
+                                        .dataFetcher("updateOrders", new BaseUpdateManyMutation())
+                                        .dataFetcher("deleteOrders", new BaseDeleteManyMutation()))
+                        .build();
+        final var schema = new SchemaGenerator().makeExecutableSchema(new SchemaParser().parse(SCHEMA), wiring);
+        return GraphQL.newGraphQL(schema).build().execute(ExecutionInput.newExecutionInput()
+                        .query(operation)
+                        .graphQLContext(context)
+                        .build());
+    }
+
+    /**
+     * @return the number of EQL statements executed so far
+     */
+    protected int getStatementCount()
+    {
+        return statements.size();
+    }
+
+    /**
+     * Asserts the upper bound of the EQL statements of an operation, see the
+     * class comment for what is counted.
+     */
+    protected void assertStatements(final String operation,
+                                    final int maxStatements)
+    {
+        final var count = execute(operation);
+        Assert.assertTrue(count <= maxStatements, String.format("%s statements instead of at most %s: %s",
+                        count, maxStatements, statements));
+    }
+
+    /**
+     * Asserts the kinds of the statements executed so far in their order,
+     * e.g. "print", "insert", "update" or "delete".
+     */
+    protected void assertKinds(final String... kinds)
+    {
+        final var actual = statements.stream()
+                        .map(statement -> statement.substring(0, statement.indexOf('.')).toLowerCase(Locale.ROOT))
+                        .toList();
+        Assert.assertEquals(actual, List.of(kinds), statements.toString());
+    }
+
+    /**
+     * Answers the calls on the stubbed EQL builders: the builders return
+     * themselves or a stub of the next builder, evaluate and execute count
+     * the statement.
+     */
+    private Object answer(final InvocationOnMock invocation)
+        throws Throwable
+    {
+        final var method = invocation.getMethod();
+        final var returnType = method.getReturnType();
+        final Object ret;
+        if ("evaluate".equals(method.getName())) {
+            statements.add(method.getDeclaringClass().getSimpleName() + ".evaluate");
+            ret = evaluator();
+        } else if ("execute".equals(method.getName())) {
+            statements.add(method.getDeclaringClass().getSimpleName() + ".execute");
+            ret = Instance.class.equals(returnType) ? instance(100 + statements.size()) : null;
+        } else if (returnType.isInstance(invocation.getMock())) {
+            ret = invocation.getMock();
+        } else if (returnType.getName().startsWith("org.efaps.eql")
+                        || returnType.getName().startsWith("org.efaps.db.stmt")) {
+            ret = Mockito.mock(returnType, this::answer);
+        } else {
+            ret = Mockito.RETURNS_DEFAULTS.answer(invocation);
+        }
+        return ret;
+    }
+
+    private Evaluator evaluator()
+        throws Exception
+    {
+        final var ret = Mockito.mock(Evaluator.class);
+        final var row = new int[] { -1 };
+        Mockito.when(ret.next()).thenAnswer(invocation -> ++row[0] < rows);
+        Mockito.when(ret.inst()).thenAnswer(invocation -> instance(row[0] + 1));
+        Mockito.when(ret.<Object>get(Mockito.anyString())).thenAnswer(invocation -> {
+            final String alias = invocation.getArgument(0);
+            // the link of a batched LinkFrom to its parent
+            return alias.startsWith("__batch:") ? Long.valueOf(row[0] + 1) : alias + "-" + row[0];
+        });
+        return ret;
+    }
+
+    private static Instance instance(final long id)
+    {
+        final var type = type("Sales_Order");
+        final var ret = Mockito.mock(Instance.class);
+        Mockito.when(ret.getId()).thenReturn(id);
+        Mockito.when(ret.getOid()).thenReturn("1." + id);
+        Mockito.when(ret.isValid()).thenReturn(true);
+        Mockito.when(ret.getType()).thenReturn(type);
+        return ret;
+    }
+
+    /**
+     * Types are cached by name like the Types of eFaps.
+     */
+    private static Type type(final String name)
+    {
+        return TYPES.computeIfAbsent(name, key -> {
+            final var ret = Mockito.mock(Type.class);
+            Mockito.when(ret.getName()).thenReturn(key);
+            return ret;
+        });
+    }
+
+    /**
+     * @param nameSelects pairs of field name and select
+     */
+    private static ObjectDef objectDef(final String... nameSelects)
+    {
+        final var fields = new HashMap<String, FieldDef>();
+        for (int i = 0; i < nameSelects.length; i += 2) {
+            final var fieldDef = Mockito.mock(FieldDef.class);
+            Mockito.when(fieldDef.getName()).thenReturn(nameSelects[i]);
+            Mockito.when(fieldDef.getSelect()).thenReturn(nameSelects[i + 1]);
+            fields.put(nameSelects[i], fieldDef);
+        }
+        final var ret = Mockito.mock(ObjectDef.class);
+        Mockito.when(ret.getFields()).thenReturn(fields);
+        return ret;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import org.testng.annotations.Test;
+
+/**
+ * Bounds and kinds of the statements of mutations.
+ */
+public class MutationStatementsTest
+    extends AbstractStatementTest
+{
+
+    @Test
+    public void createOrder()
+    {
+        properties("Mutation", "createOrder", "Type", "Sales_Order");
+        assertStatements("mutation { createOrder(input: { name: \"001\", date: \"2024-01-01\" }) }", 1);
+        assertKinds("insert");
+    }
+
+    @Test
+    public void updateOrder()
+    {
+        assertStatements("mutation { updateOrder(oid: \"1.1\", input: { name: \"002\" }) }", 1);
+        assertKinds("update");
+    }
+
+    @Test
+    public void updateOrders()
+    {
+        setRows(20);
+        properties("Mutation", "updateOrders", "Type01", "Sales_Order", "AllowUnfiltered", "true");
+        assertStatements("mutation { updateOrders(input: { date: \"2024-01-02\" }) }", 2);
+        assertKinds("print", "update");
+    }
+
+    @Test
+    public void deleteOrders()
+    {
+        setRows(20);
+        properties("Mutation", "deleteOrders", "Type01", "Sales_Order", "AllowUnfiltered", "true");
+        assertStatements("mutation { deleteOrders }", 2);
+        assertKinds("print", "delete");
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2003 - 2024 The eFaps Team (-)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.efaps.esjp.graphql;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Bounds of the statements of queries.
+ */
+public class QueryStatementsTest
+    extends AbstractStatementTest
+{
+
+    private static final String ORDERS = "{ orders { oid name date positions { oid quantity product } } }";
+
+    @DataProvider
+    public Object[][] rows()
+    {
+        return new Object[][] { { 3 }, { 10 } };
+    }
+
+    @Test
+    public void orders()
+    {
+        properties("Query", "orders", "Type01", "Sales_Order");
+        assertStatements("{ orders { oid name date } }", 1);
+    }
+
+    @Test(dataProvider = "rows")
+    public void ordersWithPositions(final int rows)
+    {
+        setRows(rows);
+        properties("Query", "orders", "Type01", "Sales_Order");
+        properties("Order", "positions", "Type01", "Sales_Position", "LinkFrom01", "OrderLink",
+                        "LinkFromBatch", "true");
+        assertStatements(ORDERS, 2);
+    }
+
+    /**
+     * The parents are queried in chunks of 1000 ids.
+     */
+    @Test
+    public void manyOrdersWithPositions()
+    {
+        setRows(2500);
+        properties("Query", "orders", "Type01", "Sales_Order");
+        properties("Order", "positions", "Type01", "Sales_Position", "LinkFrom01", "OrderLink",
+                        "LinkFromBatch", "true");
+        Assert.assertEquals(execute(ORDERS), 4);
+    }
+
+    /**
+     * Without batching each order queries its positions, which makes sure
+     * that the statements of nested fields are counted.
+     */
+    @Test
+    public void ordersWithPositionsUnbatched()
+    {
+        setRows(10);
+        properties("Query", "orders", "Type01", "Sales_Order");
+        properties("Order", "positions", "Type01", "Sales_Position", "LinkFrom01", "OrderLink");
+        Assert.assertEquals(execute(ORDERS), 11);
+    }
+
+    /**
+     * A root field rejected by the QueryCost of the operation is not fetched.
+     */
+    @Test
+    public void rejectedOrders()
+    {
+        properties("Query", "orders", "Type01", "Sales_Order", "MaxCost", "10");
+        properties("Order", "positions", "Type01", "Sales_Position", "LinkFrom01", "OrderLink");
+        final var result = run(ORDERS);
+        Assert.assertEquals(result.getErrors().size(), 1, result.getErrors().toString());
+        Assert.assertEquals(getStatementCount(), 0);
+    }
+
+    @Test
+    public void cachedOrders()
+    {
+        properties("Query", "orders", "Type01", "Sales_Order", "CacheTTL", "60");
+        execute("{ orders { oid name } }");
+        assertStatements("{ orders { oid name } }", 1);
+    }
+}